@@ -0,0 +1,655 @@
+package com.example.simplepaintapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Class which keeps an append-only journal of every committed stroke and every undo, redo, and clear,
+ * so that the drawing can be recovered if the process is killed. Operations are encoded into memory as
+ * they happen and written to the journal in batches on a background thread, so the touch handling
+ * never waits on the disk.
+ *
+ * The journal starts with a header naming the base document it applies to, followed by records which
+ * each hold their length, a checksum, and the operation. Compacting writes the current strokes as a new
+ * base document and starts an empty journal on top of it, so the journal never grows without bound.
+ */
+public class AutosaveJournal
+{
+    public static final long DEFAULT_FLUSH_DELAY = 500;
+    public static final long DEFAULT_COMPACTION_BYTES = 4 * 1024 * 1024;
+
+    private static final String JOURNAL_FILE_NAME = "autosave.journal";
+    private static final String BASE_FILE_NAME = "autosave_";
+
+    private static final int MAGIC = 0x534a524e;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8;
+    private static final int RECORD_HEADER_BYTES = 4 + 4;
+
+    private static final byte OP_STROKE = 1;
+    private static final byte OP_UNDO = 2;
+    private static final byte OP_REDO = 3;
+    private static final byte OP_CLEAR = 4;
+
+    private final File directory;
+    private final File journalFile;
+    private final ScheduledThreadPoolExecutor executor;
+    private final CRC32 crc;
+
+    private FileChannel channel;
+    private long length;
+    private long base;
+
+    private ByteBuffer pending;
+    private ByteBuffer flushing;
+    private int pendingRecords;
+    private int recordsSinceCompaction;
+    private int compactionsQueued;
+    private boolean flushScheduled;
+    private boolean closed;
+
+    private long flushDelay;
+    private long compactionBytes;
+    private JournalFlushedListener listener;
+    private JournalErrorListener errorListener;
+
+    /**
+     * Constructor which sets the directory the journal and its base documents are kept in. Nothing is
+     * read or written until the journal is recovered.
+     * @param directory - the directory of the journal.
+     */
+    public AutosaveJournal(File directory)
+    {
+        this.directory = directory;
+        journalFile = new File(directory, JOURNAL_FILE_NAME);
+        // write on a single background thread, which also delays each flush so operations are batched
+        executor = new ScheduledThreadPoolExecutor(1);
+        // a delayed flush is not waited for once the journal is closed, as closing writes everything itself
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        crc = new CRC32();
+        pending = ByteBuffer.allocate(16 * 1024);
+        flushing = ByteBuffer.allocate(16 * 1024);
+        flushDelay = DEFAULT_FLUSH_DELAY;
+        compactionBytes = DEFAULT_COMPACTION_BYTES;
+        base = -1;
+    }
+
+    /**
+     * Sets the listener which is notified on the background thread after each flush.
+     * @param listener - the listener.
+     */
+    public void setOnJournalFlushedListener(JournalFlushedListener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the listener which is notified of any error reading or writing the journal, which may be on
+     * the background thread.
+     * @param errorListener - the listener.
+     */
+    public void setOnJournalErrorListener(JournalErrorListener errorListener)
+    {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Sets how long to wait after an operation before flushing, so that later operations join the batch.
+     * @param flushDelay - the flush delay in milliseconds.
+     */
+    public void setFlushDelay(long flushDelay)
+    {
+        this.flushDelay = Math.max(0, flushDelay);
+    }
+
+    /**
+     * Returns how long to wait after an operation before flushing.
+     * @return flushDelay - the flush delay in milliseconds.
+     */
+    public long getFlushDelay()
+    {
+        return flushDelay;
+    }
+
+    /**
+     * Sets the size the journal may grow to before compaction is due.
+     * @param compactionBytes - the size in bytes.
+     */
+    public void setCompactionBytes(long compactionBytes)
+    {
+        this.compactionBytes = compactionBytes;
+    }
+
+    /**
+     * Returns the size the journal may grow to before compaction is due.
+     * @return compactionBytes - the size in bytes.
+     */
+    public long getCompactionBytes()
+    {
+        return compactionBytes;
+    }
+
+    /**
+     * Rebuilds the history from the base document and the journal, then opens the journal for appending.
+     * Any record which was only partly written when the process was killed is discarded.
+     * @param history - the empty history to replay the operations into.
+     * @return boolean - whether anything was recovered.
+     * @throws IOException - if the journal could not be opened.
+     */
+    public boolean recover(StrokeHistory history) throws IOException
+    {
+        boolean recovered = false;
+        channel = new RandomAccessFile(journalFile, "rw").getChannel();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), Integer.MAX_VALUE));
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0)
+        {
+            // keep reading until the whole journal is in memory
+        }
+        buffer.flip();
+
+        if (buffer.remaining() >= HEADER_BYTES && buffer.getInt() == MAGIC && buffer.getInt() == VERSION)
+        {
+            base = buffer.getLong();
+            if (base >= 0)
+                recovered = openBase(history);
+            // replay every complete record, stopping at the first one which is torn or corrupt
+            while (buffer.remaining() >= RECORD_HEADER_BYTES)
+            {
+                int recordLength = buffer.getInt(buffer.position());
+                int checksum = buffer.getInt(buffer.position() + 4);
+                int start = buffer.position() + RECORD_HEADER_BYTES;
+                if (recordLength <= 0 || recordLength > buffer.limit() - start)
+                    break;
+                crc.reset();
+                crc.update(buffer.array(), start, recordLength);
+                if ((int) crc.getValue() != checksum)
+                    break;
+                ByteBuffer record = buffer.duplicate();
+                record.position(start);
+                record.limit(start + recordLength);
+                try
+                {
+                    replay(record, history);
+                } catch (IOException e)
+                {
+                    reportError(e);
+                    break;
+                }
+                buffer.position(start + recordLength);
+                recordsSinceCompaction++;
+                recovered = true;
+            }
+            length = buffer.position();
+            channel.truncate(length);
+        } else
+        {
+            // the journal is missing or unreadable, so start a new one
+            base = -1;
+            length = writeHeader(channel, base);
+        }
+        deleteUnusedBases();
+        return recovered;
+    }
+
+    /**
+     * Records a stroke which has been committed to the history.
+     * @param drawPath - the stroke.
+     */
+    public void recordStroke(DrawPath drawPath)
+    {
+        StrokePoints points;
+        try
+        {
+            points = drawPath.getPoints();
+        } catch (IOException e)
+        {
+            // the stroke is left out of the journal until it is next compacted
+            reportError(e);
+            return;
+        }
+        synchronized (this)
+        {
+            int start = beginRecord(1 + 4 + 4 + StrokeSpillFile.getRecordBytes(points));
+            pending.put(OP_STROKE);
+            pending.putInt(drawPath.getColour());
+            pending.putInt(drawPath.getWidth());
+            StrokeSpillFile.putRecord(pending, points);
+            endRecord(start);
+        }
+    }
+
+    /**
+     * Records that the most recent stroke was undone.
+     */
+    public void recordUndo()
+    {
+        recordOperation(OP_UNDO);
+    }
+
+    /**
+     * Records that the most recently undone stroke was redone.
+     */
+    public void recordRedo()
+    {
+        recordOperation(OP_REDO);
+    }
+
+    /**
+     * Records that the history was cleared.
+     */
+    public void recordClear()
+    {
+        recordOperation(OP_CLEAR);
+    }
+
+    /**
+     * Writes any operations which are waiting to be flushed as soon as possible.
+     */
+    public synchronized void flush()
+    {
+        if (pendingRecords == 0 || closed)
+            return;
+        flushScheduled = true;
+        executor.execute(new Runnable()
+        {
+            /**
+             * Writes the batch of operations.
+             */
+            @Override
+            public void run()
+            {
+                writePending();
+            }
+        });
+    }
+
+    /**
+     * Returns whether the journal has grown large enough that it should be compacted.
+     * @return boolean - whether compaction is due.
+     */
+    public synchronized boolean isCompactionDue()
+    {
+        return length + pending.position() > compactionBytes;
+    }
+
+    /**
+     * Writes the strokes as a new base document in the background and starts an empty journal on top of
+     * it. The strokes must be exactly those which result from every operation recorded so far.
+     * @param width - the width of the canvas.
+     * @param height - the height of the canvas.
+     * @param strokes - every stroke in the order it was drawn, which must not change while being written.
+     * @param bakedCount - the number of strokes, from the first, which have been baked.
+     * @param undoCount - the number of strokes, from the first, which are shown on the canvas.
+     */
+    public void compact(final int width, final int height, final List<DrawPath> strokes, final int bakedCount,
+                        final int undoCount)
+    {
+        final ByteBuffer superseded;
+        synchronized (this)
+        {
+            if ((recordsSinceCompaction == 0 && pendingRecords == 0) || closed)
+                return;
+            // the operations which are still waiting are covered by the new base document
+            superseded = pending;
+            pending = ByteBuffer.allocate(superseded.capacity());
+            pendingRecords = 0;
+            recordsSinceCompaction = 0;
+            // hold back any later operations until the new journal is in place
+            compactionsQueued++;
+        }
+        executor.execute(new Runnable()
+        {
+            /**
+             * Writes the new base document and replaces the journal.
+             */
+            @Override
+            public void run()
+            {
+                long next = base + 1;
+                try
+                {
+                    DrawingDocument.write(getBaseFile(next), width, height, strokes, bakedCount, undoCount);
+                    // the new journal only takes effect once it is renamed over the old one
+                    File tempFile = new File(directory, JOURNAL_FILE_NAME + ".tmp");
+                    FileChannel tempChannel = new RandomAccessFile(tempFile, "rw").getChannel();
+                    tempChannel.truncate(0);
+                    long tempLength = writeHeader(tempChannel, next);
+                    if (!tempFile.renameTo(journalFile))
+                    {
+                        tempChannel.close();
+                        throw new IOException("Could not replace " + journalFile);
+                    }
+                    if (channel != null)
+                        channel.close();
+                    channel = tempChannel;
+                    synchronized (AutosaveJournal.this)
+                    {
+                        length = tempLength;
+                    }
+                    base = next;
+                    deleteUnusedBases();
+                } catch (IOException | RuntimeException e)
+                {
+                    // keep the old journal, along with the operations it was missing
+                    reportError(e);
+                    superseded.flip();
+                    append(superseded);
+                } finally
+                {
+                    synchronized (AutosaveJournal.this)
+                    {
+                        compactionsQueued--;
+                    }
+                    // write the operations which were held back
+                    flush();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for any compaction still in progress, writes every operation recorded so far, and then stops
+     * the background thread and closes the journal, so another journal can be opened on the same
+     * directory. Operations recorded after the journal is closed are not written.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+        }
+        executor.shutdown();
+        boolean interrupted = false;
+        while (!executor.isTerminated())
+        {
+            try
+            {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        // keep the interrupt for the caller, rather than leaving the journal half written
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        // the background thread has stopped, so the operations it held back are written here
+        writePending();
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            } catch (IOException e)
+            {
+                reportError(e);
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * Records an operation which has no data of its own.
+     * @param op - the operation.
+     */
+    private synchronized void recordOperation(byte op)
+    {
+        int start = beginRecord(1);
+        pending.put(op);
+        endRecord(start);
+    }
+
+    /**
+     * Makes room in the pending buffer for a record and skips its header, which is filled in once the
+     * record is complete.
+     * @param recordLength - the length of the record's data.
+     * @return int - the position of the record's header.
+     */
+    private int beginRecord(int recordLength)
+    {
+        int needed = RECORD_HEADER_BYTES + recordLength;
+        if (pending.remaining() < needed)
+        {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + needed));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        int start = pending.position();
+        pending.position(start + RECORD_HEADER_BYTES);
+        return start;
+    }
+
+    /**
+     * Fills in the length and checksum of a record and schedules a flush if one is not already due.
+     * @param start - the position of the record's header.
+     */
+    private void endRecord(int start)
+    {
+        int dataStart = start + RECORD_HEADER_BYTES;
+        int recordLength = pending.position() - dataStart;
+        crc.reset();
+        crc.update(pending.array(), dataStart, recordLength);
+        pending.putInt(start, recordLength);
+        pending.putInt(start + 4, (int) crc.getValue());
+        pendingRecords++;
+        recordsSinceCompaction++;
+        if (!flushScheduled && !closed)
+        {
+            flushScheduled = true;
+            executor.schedule(new Runnable()
+            {
+                /**
+                 * Writes the batch of operations.
+                 */
+                @Override
+                public void run()
+                {
+                    writePending();
+                }
+            }, flushDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the pending operations to the journal. Only called from the background thread, or once it
+     * has stopped.
+     */
+    private void writePending()
+    {
+        ByteBuffer batch;
+        synchronized (this)
+        {
+            flushScheduled = false;
+            // a queued compaction flushes once it has replaced the journal
+            if (pendingRecords == 0 || compactionsQueued > 0)
+                return;
+            // swap the buffers so new operations can be recorded while the batch is written
+            batch = pending;
+            pending = flushing;
+            flushing = batch;
+            pendingRecords = 0;
+        }
+        batch.flip();
+        append(batch);
+        batch.clear();
+        // a larger buffer is kept, so the next batch of the same size needs no allocation
+        synchronized (this)
+        {
+            if (pending.position() == 0 && pending.capacity() < batch.capacity())
+            {
+                pending = batch;
+                flushing = ByteBuffer.allocate(batch.capacity());
+            }
+        }
+    }
+
+    /**
+     * Appends a batch of records to the end of the journal and reports how long it took. Only called
+     * from the background thread, or once it has stopped.
+     * @param batch - the records to be written.
+     */
+    private void append(ByteBuffer batch)
+    {
+        // nothing can be written if the journal could not be opened
+        if (channel == null)
+            return;
+        long start = System.nanoTime();
+        int bytes = batch.remaining();
+        try
+        {
+            long position = length;
+            while (batch.hasRemaining())
+                position += channel.write(batch, position);
+            channel.force(false);
+            synchronized (this)
+            {
+                length = position;
+            }
+        } catch (IOException e)
+        {
+            // the journal ends at the last complete batch, and recovery ignores anything after it
+            reportError(e);
+            return;
+        }
+        if (listener != null)
+            listener.onJournalFlushed(bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Passes an error to the error listener, if there is one.
+     * @param e - the error.
+     */
+    private void reportError(Exception e)
+    {
+        if (errorListener != null)
+            errorListener.onJournalError(e);
+    }
+
+    /**
+     * Replays a single record into the history.
+     * @param record - the data of the record.
+     * @param history - the history to replay into.
+     * @throws IOException - if the record holds an unknown operation.
+     */
+    private static void replay(ByteBuffer record, StrokeHistory history) throws IOException
+    {
+        byte op = record.get();
+        switch (op)
+        {
+            case OP_STROKE:
+                int colour = record.getInt();
+                int width = record.getInt();
+                history.add(new DrawPath(colour, width, StrokeSpillFile.getRecord(record)));
+                break;
+            case OP_UNDO:
+                history.undo();
+                break;
+            case OP_REDO:
+                history.redo();
+                break;
+            case OP_CLEAR:
+                history.clear();
+                break;
+            default:
+                throw new IOException("Unknown journal operation " + op);
+        }
+    }
+
+    /**
+     * Adds the strokes of the base document to the history.
+     * @param history - the history to add the strokes to.
+     * @return boolean - whether the base document held any strokes.
+     */
+    private boolean openBase(StrokeHistory history)
+    {
+        DrawingDocument document;
+        try
+        {
+            document = DrawingDocument.open(getBaseFile(base));
+        } catch (IOException e)
+        {
+            reportError(e);
+            return false;
+        }
+        // the baked strokes stay baked, so recovery cannot undo further back than the drawing could
+        for (int i = 0; i < document.getBakedCount(); i++)
+            history.addBaked(document.getStroke(i));
+        for (int i = document.getBakedCount(); i < document.getUndoCount(); i++)
+            history.add(document.getStroke(i));
+        // the redo list is last in first out, so the next stroke to be redone goes on last
+        for (int i = document.getStrokeCount() - 1; i >= document.getUndoCount(); i--)
+            history.addRedo(document.getStroke(i));
+        return document.getStrokeCount() > 0;
+    }
+
+    /**
+     * Deletes every base document other than the current one, such as one which was written by a
+     * compaction that never finished.
+     */
+    private void deleteUnusedBases()
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        String current = getBaseFile(base).getName();
+        for (File file : files)
+        {
+            String name = file.getName();
+            if (name.startsWith(BASE_FILE_NAME) && !name.equals(current))
+                file.delete();
+        }
+    }
+
+    /**
+     * Returns the file of a numbered base document.
+     * @param number - the number of the base document.
+     * @return File - the document file.
+     */
+    private File getBaseFile(long number)
+    {
+        return new File(directory, BASE_FILE_NAME + number + DrawingDocument.FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the header of a journal at the start of a channel.
+     * @param channel - the channel of the journal.
+     * @param base - the number of the base document, or -1 if there is none.
+     * @return long - the length of the header.
+     * @throws IOException - if the header could not be written.
+     */
+    private static long writeHeader(FileChannel channel, long base) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(base);
+        header.flip();
+        channel.truncate(0);
+        while (header.hasRemaining())
+            channel.write(header, header.position());
+        channel.force(false);
+        return HEADER_BYTES;
+    }
+
+    /**
+     * Interface which handles callbacks when a batch of operations has been written to the journal.
+     */
+    public interface JournalFlushedListener
+    {
+        void onJournalFlushed(int bytes, long latencyNanos);
+    }
+
+    /**
+     * Interface which handles callbacks when the journal could not be read or written.
+     */
+    public interface JournalErrorListener
+    {
+        void onJournalError(Exception e);
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.simplepaintapp;
+
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class which holds the strokes which have been baked out of the undo list, rasterized once into a
+ * grid of tiles of their own. Replays start from the base layer rather than from the first stroke ever
+ * drawn, so they only ever draw the strokes which can still be undone.
+ *
+ * The baked strokes are already shown on the canvas tiles, so they are rasterized into the base layer
+ * on a background thread, and the base layer is only read when the canvas tiles are rebuilt. The
+ * background thread draws without holding the lock into tiles of its own, and publishes a snapshot of
+ * them once each batch is drawn. Reading the base layer never waits for it: the last snapshot is copied,
+ * and any strokes which are still being baked are drawn on top of it by the reader.
+ */
+public class BaseLayer
+{
+    private final TileStore tiles;
+    private final StrokeRenderer renderer;
+    private final ExecutorService executor;
+    private final Rect area;
+    private final Rect fullArea;
+    private final Rect strokeArea;
+    private final TileStore.Snapshot empty;
+    private final ArrayList<DrawPath> queued;
+
+    private TileStore.Snapshot published;
+    private int generation;
+    private int tilesGeneration;
+    private int bakedCount;
+    private boolean closed;
+
+    /**
+     * Constructor which sets up an empty base layer covering the canvas.
+     * @param width - the width of the canvas.
+     * @param height - the height of the canvas.
+     */
+    public BaseLayer(int width, int height)
+    {
+        // the tiles are only touched by the background thread, which draws with a renderer of its own as
+        // the canvas's is not thread safe
+        tiles = new TileStore(width, height);
+        renderer = new StrokeRenderer();
+        executor = Executors.newSingleThreadExecutor();
+        area = new Rect();
+        fullArea = new Rect(0, 0, width, height);
+        // the canvas only restores while holding its own lock, so its strokes can share one rectangle
+        strokeArea = new Rect();
+        empty = tiles.snapshot(0);
+        queued = new ArrayList<>();
+        published = empty;
+    }
+
+    /**
+     * Rasterizes strokes onto the base layer in the background, on top of those baked before them.
+     * @param strokes - the strokes, in the order they were drawn, whose points must be final.
+     */
+    public synchronized void bake(final List<DrawPath> strokes)
+    {
+        if (closed)
+            return;
+        final int bakeGeneration = generation;
+        queued.addAll(strokes);
+        executor.execute(new Runnable()
+        {
+            /**
+             * Draws the strokes onto the tiles and publishes them, unless the base layer has been cleared
+             * since they were queued.
+             */
+            @Override
+            public void run()
+            {
+                synchronized (BaseLayer.this)
+                {
+                    if (bakeGeneration != generation)
+                        return;
+                }
+                // the tiles still hold the strokes baked before the base layer was last cleared
+                if (tilesGeneration != bakeGeneration)
+                {
+                    tiles.clear();
+                    tilesGeneration = bakeGeneration;
+                }
+                for (DrawPath drawPath : strokes)
+                    draw(drawPath, renderer, tiles, area, null);
+                synchronized (BaseLayer.this)
+                {
+                    if (bakeGeneration != generation)
+                        return;
+                    // the tiles are copied the next time they are drawn on, so readers can keep the snapshot
+                    published = tiles.snapshot(bakeGeneration);
+                    queued.subList(0, strokes.size()).clear();
+                    bakedCount += strokes.size();
+                }
+            }
+        });
+    }
+
+    /**
+     * Replaces the pixels of every canvas tile with those of the base layer, including any strokes which
+     * are still being baked.
+     * @param target - the canvas tiles, which must cover the same area as the base layer.
+     * @param renderer - the renderer to draw the strokes still being baked with.
+     */
+    public void restore(TileStore target, StrokeRenderer renderer)
+    {
+        restore(target, fullArea, renderer);
+    }
+
+    /**
+     * Replaces the pixels within an area of the canvas tiles with those of the base layer, including any
+     * strokes which are still being baked.
+     * @param target - the canvas tiles, which must cover the same area as the base layer.
+     * @param area - the area to be restored.
+     * @param renderer - the renderer to draw the strokes still being baked with.
+     */
+    public void restore(TileStore target, Rect area, StrokeRenderer renderer)
+    {
+        TileStore.Snapshot snapshot;
+        DrawPath[] strokes;
+        synchronized (this)
+        {
+            snapshot = published;
+            strokes = queued.toArray(new DrawPath[0]);
+        }
+        target.copyFrom(snapshot, area);
+        for (DrawPath drawPath : strokes)
+            draw(drawPath, renderer, target, strokeArea, area);
+    }
+
+    /**
+     * Returns the number of strokes which have been rasterized onto the base layer.
+     * @return int - the number of baked strokes.
+     */
+    public synchronized int getBakedCount()
+    {
+        return bakedCount;
+    }
+
+    /**
+     * Empties the base layer, dropping any strokes which are still queued to be baked. The tiles are
+     * freed by the background thread before it next bakes.
+     */
+    public synchronized void clear()
+    {
+        generation++;
+        bakedCount = 0;
+        queued.clear();
+        published = empty;
+    }
+
+    /**
+     * Empties the base layer and stops the background thread, dropping any strokes which are still
+     * queued to be baked. Nothing more is baked once closed.
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        clear();
+        executor.shutdown();
+    }
+
+    /**
+     * Draws a stroke onto the tiles it covers, releasing its points again if they had to be paged in.
+     * @param drawPath - the stroke to be drawn.
+     * @param renderer - the renderer to draw with.
+     * @param target - the tiles to draw on.
+     * @param strokeArea - the rectangle to hold the area covered by the stroke.
+     * @param clip - the area which may be drawn on, or null to draw the whole stroke.
+     */
+    private static void draw(DrawPath drawPath, StrokeRenderer renderer, TileStore target, Rect strokeArea,
+                             Rect clip)
+    {
+        boolean resident = drawPath.isResident();
+        try
+        {
+            if (renderer.prepare(drawPath))
+            {
+                // the same area the stroke was drawn within on the canvas tiles
+                StrokePoints points = drawPath.getPoints();
+                float inset = drawPath.getWidth() / 2f + 1;
+                strokeArea.set((int) Math.floor(points.getMinX() - inset),
+                        (int) Math.floor(points.getMinY() - inset),
+                        (int) Math.ceil(points.getMaxX() + inset), (int) Math.ceil(points.getMaxY() + inset));
+                // only touch the tiles within the clip, as the rest are not being restored
+                if (clip == null || strokeArea.intersect(clip))
+                    target.draw(renderer, strokeArea, clip);
+            }
+        } catch (IOException e)
+        {
+            Log.w("ERROR", "" + e.getMessage());
+        }
+        if (!resident)
+            drawPath.pageOut();
+    }
+}
@@ -2,37 +2,93 @@ package com.example.simplepaintapp;
 
 import android.graphics.Bitmap;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 /**
- * Class which handles the exporting of CanvasView drawings through saving/sharing.
+ * Class which handles the exporting of CanvasView drawings through saving/sharing. Exports can be run
+ * on a background thread from a snapshot of the canvas, so drawing can continue while they encode.
+ * The encoded image is cached by the content generation of the canvas, so an unchanged drawing is
+ * never encoded twice.
  */
 public class CanvasExporter
 {
     private static final String DIRECTORY_PATH = "/Pictures/Paint";
-    private static final String SAVE_FILE_NAME = "/drawing_";
+    private static final String SAVE_FILE_NAME = "drawing_";
     private static final String SHARE_FILE_NAME = "/shared_";
     private static final String FILE_EXTENSION = ".png";
+    private static final Bitmap.CompressFormat EXPORT_FORMAT = Bitmap.CompressFormat.PNG;
+    private static final int ENCODED_CACHE_SIZE = 2;
 
     public static final int PERMISSION_WRITE_EXTERNAL_STORAGE = 1;
     public static final int FLAG_SAVE = 1;
     public static final int FLAG_SHARE = 2;
+    public static final int FLAG_SAVE_HIGH_RES = 3;
+    public static final float HIGH_RES_SCALE = 4;
 
     private final File subDirectory;
+    private final SaveFileIndex saveFileIndex;
+    private final ExecutorService executor;
+    private final ForkJoinPool renderPool;
+    private final Handler mainHandler;
+    private final Map<String, byte[]> encodedCache;
+    private final LatencyHistogram encodeDuration;
+    private final LatencyHistogram writeDuration;
+    private final LatencyHistogram highResolutionDuration;
+    private final MetricsRegistry.Counter encodedCacheHits;
+
+    private File sharedImage;
+    private long sharedGeneration;
 
     private int exportType;
 
     /**
      * Constructor which finds the sub-directory to be exported to.
+     * @param metrics - the registry to record the time taken to encode and write each export in.
      */
-    public CanvasExporter()
+    public CanvasExporter(MetricsRegistry metrics)
     {
         // get the output storage directory and find the sub-directory.
         File storageDirectory = Environment.getExternalStorageDirectory();
         subDirectory = new File(storageDirectory.toString() + DIRECTORY_PATH);
+        saveFileIndex = new SaveFileIndex(subDirectory, SAVE_FILE_NAME, FILE_EXTENSION);
+        // exports run one at a time in the background, and report back on the main thread
+        executor = Executors.newSingleThreadExecutor();
+        // high resolution exports render their tiles on every core
+        renderPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        mainHandler = new Handler(Looper.getMainLooper());
+        // keep only the most recently encoded images, which are only used on the background thread
+        encodedCache = new LinkedHashMap<String, byte[]>(ENCODED_CACHE_SIZE + 1, 1, true)
+        {
+            /**
+             * Evicts the least recently used encoded image once the cache is full.
+             * @param eldest - the least recently used entry.
+             * @return boolean - whether to evict the entry.
+             */
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest)
+            {
+                return size() > ENCODED_CACHE_SIZE;
+            }
+        };
+        encodeDuration = metrics.histogram("export.encode");
+        writeDuration = metrics.histogram("export.write");
+        highResolutionDuration = metrics.histogram("export.high_res");
+        encodedCacheHits = metrics.counter("export.cache_hits");
     }
 
     /**
@@ -67,91 +123,208 @@ public class CanvasExporter
     }
 
     /**
-     * Returns the number of files which already exist within a given directory.
-     * @param directory - the directory to check for files.
-     * @return int - the number of existing files.
+     * Saves a snapshot of the canvas to a file in the background.
+     * @param snapshot - the snapshot of the canvas to be saved.
+     * @param listener - the listener to notify on the main thread once the image is saved.
+     */
+    public void saveImageAsync(final TileStore.Snapshot snapshot, final ExportCompletedListener listener)
+    {
+        executor.execute(new Runnable()
+        {
+            /**
+             * Composes, encodes, and writes the snapshot.
+             */
+            @Override
+            public void run()
+            {
+                File image = null;
+                if (createDirectory() || subDirectory.exists())
+                {
+                    // create a new file with the next number from the index and write the encoded snapshot to it
+                    image = saveFileIndex.nextFile();
+                    if (!outputToFileStream(image, encode(snapshot)))
+                        image = null;
+                }
+                notifyListener(listener, image);
+            }
+        });
+    }
+
+    /**
+     * Re-renders the strokes of the canvas at a larger scale and saves them to a file in the background.
+     * @param strokes - the strokes shown on the canvas, which must not change while being exported.
+     * @param width - the width of the canvas.
+     * @param height - the height of the canvas.
+     * @param scale - the scale of the image relative to the canvas.
+     * @param listener - the listener to notify on the main thread once the image is saved.
+     */
+    public void saveHighResolutionImageAsync(final List<DrawPath> strokes, final int width, final int height,
+                                             final float scale, final ExportCompletedListener listener)
+    {
+        executor.execute(new Runnable()
+        {
+            /**
+             * Renders the strokes and streams them to the file.
+             */
+            @Override
+            public void run()
+            {
+                File image = null;
+                if (createDirectory() || subDirectory.exists())
+                {
+                    long start = System.nanoTime();
+                    image = saveFileIndex.nextFile();
+                    HighResolutionExport export = new HighResolutionExport(strokes, width, height, scale);
+                    try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(image)))
+                    {
+                        export.write(renderPool, outputStream);
+                    } catch (IOException e)
+                    {
+                        Log.w("ERROR", "" + e.getMessage());
+                        image.delete();
+                        image = null;
+                    }
+                    highResolutionDuration.record(System.nanoTime() - start);
+                }
+                notifyListener(listener, image);
+            }
+        });
+    }
+
+    /**
+     * Writes a snapshot of the canvas to a file for sharing in the background.
+     * @param snapshot - the snapshot of the canvas to be shared.
+     * @param listener - the listener to notify on the main thread once the image is written.
      */
-    public int getExistingFileCount(File directory)
+    public void getImageAsync(final TileStore.Snapshot snapshot, final ExportCompletedListener listener)
     {
-        int count = 0;
-        // get the existing images as an array
-        File[] existingImages = directory.listFiles();
-        // if there is at least one image
-        if (existingImages != null)
+        executor.execute(new Runnable()
         {
-            // loop through the existing images
-            for (File file : existingImages)
+            /**
+             * Composes, encodes, and writes the snapshot.
+             */
+            @Override
+            public void run()
             {
-                // extract the file name and increment the counter if it is a valid file type
-                String name = file.getName();
-                if (name.endsWith(".jpg") || name.endsWith(".png"))
-                    count++;
+                // re-use the previously shared file if the drawing has not changed since
+                if (sharedImage == null || sharedGeneration != snapshot.getGeneration() || !sharedImage.exists())
+                {
+                    sharedImage = null;
+                    if (createDirectory() || subDirectory.exists())
+                    {
+                        // create a new file for the encoded snapshot to allow it to be shared
+                        File image = new File(subDirectory, SHARE_FILE_NAME + Math.random() + FILE_EXTENSION);
+                        if (outputToFileStream(image, encode(snapshot)))
+                        {
+                            sharedImage = image;
+                            sharedGeneration = snapshot.getGeneration();
+                        }
+                    }
+                }
+                notifyListener(listener, sharedImage);
             }
+        });
+    }
+
+    /**
+     * Stops the background threads once any export already started has finished. Nothing more can be
+     * exported once closed.
+     */
+    public void close()
+    {
+        executor.execute(new Runnable()
+        {
+            /**
+             * Stops the render pool after the last export which could use it.
+             */
+            @Override
+            public void run()
+            {
+                renderPool.shutdown();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the encoded image of a snapshot, encoding it only if the same content generation has
+     * not already been encoded in the same format. Only called from the background thread.
+     * @param snapshot - the snapshot of the canvas.
+     * @return byte[] - the encoded image.
+     */
+    private byte[] encode(TileStore.Snapshot snapshot)
+    {
+        String key = snapshot.getGeneration() + ":" + EXPORT_FORMAT;
+        byte[] encoded = encodedCache.get(key);
+        if (encoded == null)
+        {
+            long start = System.nanoTime();
+            // compose and compress the snapshot, then cache the result
+            Bitmap bitmap = snapshot.toBitmap();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            bitmap.compress(EXPORT_FORMAT, 100, outputStream);
+            bitmap.recycle();
+            encoded = outputStream.toByteArray();
+            encodedCache.put(key, encoded);
+            encodeDuration.record(System.nanoTime() - start);
+        } else
+        {
+            encodedCacheHits.increment();
         }
-        return count;
+        return encoded;
     }
 
     /**
-     * Outputs an input bitmap to a given output FileOutputStream.
+     * Outputs an encoded image to a given file.
      * @param image - the output image file.
-     * @param bitmap - the bitmap representation of a drawing.
+     * @param encoded - the encoded image.
+     * @return boolean - whether the image was written successfully.
      */
-    private void outputToFileStream (File image, Bitmap bitmap)
+    private boolean outputToFileStream (File image, byte[] encoded)
     {
-        FileOutputStream fileOutputStream;
+        long start = System.nanoTime();
         try
         {
-            // compress the bitmap and link it to the output stream
-            fileOutputStream = new FileOutputStream(image);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, fileOutputStream);
-            // flush and close the output stream.
+            // write the encoded bytes and close the output stream
+            FileOutputStream fileOutputStream = new FileOutputStream(image);
+            fileOutputStream.write(encoded);
             fileOutputStream.flush();
             fileOutputStream.close();
+            writeDuration.record(System.nanoTime() - start);
+            return true;
         } catch (Exception e)
         {
             // throw an error message
             Log.w("ERROR", "" + e.getMessage());
+            return false;
         }
     }
 
     /**
-     * Saves the image to a file and returns the path to the saved file.
-     * @param bitmap - the bitmap to be saved as an image.
-     * @return String - the path to the saved image.
+     * Notifies a listener of a completed export on the main thread.
+     * @param listener - the listener to notify.
+     * @param image - the exported image file, or null if the export failed.
      */
-    public String saveImage(Bitmap bitmap)
+    private void notifyListener(final ExportCompletedListener listener, final File image)
     {
-        boolean created = createDirectory();
-        // if the sub-directory exists or was created successfully
-        if (subDirectory.exists() || created)
+        mainHandler.post(new Runnable()
         {
-            // create a new file for the bitmap
-            int fileCount = getExistingFileCount(subDirectory);
-            File image = new File(subDirectory, SAVE_FILE_NAME + ++fileCount + FILE_EXTENSION);
-            outputToFileStream(image, bitmap);
-            // return the path to the saved image.
-            return image.getAbsolutePath();
-        }
-        return null;
+            /**
+             * Passes the exported image to the listener.
+             */
+            @Override
+            public void run()
+            {
+                listener.onExportCompleted(image);
+            }
+        });
     }
 
     /**
-     * Returns the image representation of an input bitmap.
-     * @param bitmap - the bitmap to be saved as an image.
-     * @return File - the file to which the bitmap was saved.
+     * Interface which handles callbacks when an export has completed.
      */
-    public File getImage(Bitmap bitmap)
+    public interface ExportCompletedListener
     {
-        boolean created = createDirectory();
-        // if the sub-directory exists or was created successfully
-        if (subDirectory.exists() || created)
-        {
-            // create a new file for the bitmap to allow it to be shared
-            File image = new File(subDirectory, SHARE_FILE_NAME + Math.random() + FILE_EXTENSION);
-            outputToFileStream(image, bitmap);
-            // return the image file
-            return image;
-        }
-        return null;
+        void onExportCompleted(File image);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,155 @@
+package com.example.simplepaintapp;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class which runs the rasterization of a CanvasView on a thread of its own. The UI thread only queues
+ * the touch samples it receives and wakes the thread, which then draws them onto the tiles and draws the
+ * changed tiles onto its CanvasSurfaceView on the next frame of the display. Replays of the strokes are run
+ * on this thread one chunk per frame, so however long they take they never hold up touch dispatch.
+ *
+ * Undo, redo, and clear are passed to the thread as messages rather than run on the UI thread, so they
+ * are applied after every touch sample queued before them.
+ */
+public class CanvasRenderThread extends HandlerThread implements Handler.Callback, Choreographer.FrameCallback
+{
+    private static final String THREAD_NAME = "CanvasRender";
+
+    public static final int MESSAGE_UNDO = 1;
+    public static final int MESSAGE_REDO = 2;
+    public static final int MESSAGE_CLEAR = 3;
+    private static final int MESSAGE_DRAIN = 4;
+    private static final int MESSAGE_FRAME = 5;
+
+    private final CanvasView canvasView;
+    private final TouchSampleQueue queue;
+    private final AtomicBoolean drainPending;
+    private final AtomicBoolean framePending;
+    private Handler handler;
+
+    /**
+     * Constructor which sets up the queue of touch samples.
+     * @param canvasView - the canvas which is drawn on this thread.
+     * @param capacity - the number of touch samples which can be waiting to be drawn at once.
+     */
+    public CanvasRenderThread(CanvasView canvasView, int capacity)
+    {
+        super(THREAD_NAME, Process.THREAD_PRIORITY_DISPLAY);
+        this.canvasView = canvasView;
+        queue = new TouchSampleQueue(capacity);
+        drainPending = new AtomicBoolean();
+        framePending = new AtomicBoolean();
+    }
+
+    /**
+     * Starts the thread, and waits for it to be ready to receive messages.
+     */
+    @Override
+    public synchronized void start()
+    {
+        super.start();
+        handler = new Handler(getLooper(), this);
+    }
+
+    /**
+     * Returns the queue which the UI thread adds touch samples to, which are drawn once wake() is called.
+     * @return queue - the touch sample queue.
+     */
+    public TouchSampleQueue getQueue()
+    {
+        return queue;
+    }
+
+    /**
+     * Returns whether the calling thread is this thread.
+     * @return boolean - whether it is called on the render thread.
+     */
+    public boolean isCurrentThread()
+    {
+        return Thread.currentThread() == this;
+    }
+
+    /**
+     * Wakes the thread to draw the touch samples which have been queued. Only one wake is posted however
+     * many samples are queued before the thread gets to it, so this allocates nothing.
+     */
+    public void wake()
+    {
+        if (drainPending.compareAndSet(false, true))
+            handler.sendEmptyMessage(MESSAGE_DRAIN);
+    }
+
+    /**
+     * Asks for the canvas to be drawn onto its surface on the next frame. This can be called on any thread.
+     */
+    public void requestFrame()
+    {
+        if (!framePending.compareAndSet(false, true))
+            return;
+        // the Choreographer belongs to the thread which uses it
+        if (isCurrentThread())
+            Choreographer.getInstance().postFrameCallback(this);
+        else
+            handler.sendEmptyMessage(MESSAGE_FRAME);
+    }
+
+    /**
+     * Passes an undo, redo, or clear to the thread, to be run after the touch samples queued before it.
+     * @param what - the message, which is one of the MESSAGE_ constants.
+     */
+    public void send(int what)
+    {
+        handler.sendEmptyMessage(what);
+    }
+
+    /**
+     * Handles a message on the render thread.
+     * @param message - the message.
+     * @return boolean - whether the message was handled.
+     */
+    @Override
+    public boolean handleMessage(Message message)
+    {
+        switch (message.what)
+        {
+            case MESSAGE_DRAIN:
+                // any sample queued after this point wakes the thread again
+                drainPending.set(false);
+                canvasView.drainTouches(queue);
+                break;
+            case MESSAGE_FRAME:
+                Choreographer.getInstance().postFrameCallback(this);
+                break;
+            case MESSAGE_UNDO:
+                canvasView.undo();
+                break;
+            case MESSAGE_REDO:
+                canvasView.redo();
+                break;
+            case MESSAGE_CLEAR:
+                canvasView.clear();
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draws the canvas onto its surface at the start of a frame.
+     * @param frameTimeNanos - the time the frame started rendering.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos)
+    {
+        // a change made while the frame is drawn asks for another frame
+        framePending.set(false);
+        canvasView.renderFrame();
+    }
+}
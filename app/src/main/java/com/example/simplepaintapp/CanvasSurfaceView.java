@@ -0,0 +1,125 @@
+package com.example.simplepaintapp;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Class which holds the surface a CanvasView is drawn onto when its render thread is enabled. The view
+ * lies under the CanvasView and covers the same area, and is hidden until the render thread is enabled.
+ * The CanvasView still receives the touches and has no background of its own, so the surface shows
+ * through it.
+ *
+ * The surface is guarded by the CanvasView's lock, which the render thread holds while it draws.
+ */
+public class CanvasSurfaceView extends SurfaceView implements SurfaceHolder.Callback
+{
+    private CanvasView canvasView;
+    private Drawable surfaceBackground;
+    private SurfaceHolder surfaceHolder;
+
+    /**
+     * Constructor which listens for the surface being created and destroyed.
+     * @param context - the context of the application.
+     * @param attrs - any custom xml-defined attributes.
+     */
+    public CanvasSurfaceView(Context context, @Nullable AttributeSet attrs)
+    {
+        super(context, attrs);
+        getHolder().addCallback(this);
+    }
+
+    /**
+     * Shows the surface, which the canvas is then drawn onto.
+     * @param canvasView - the canvas which is drawn onto the surface.
+     * @param background - the background to draw under the tiles, or null to fill it with a colour.
+     */
+    void attach(CanvasView canvasView, @Nullable Drawable background)
+    {
+        this.canvasView = canvasView;
+        surfaceBackground = background;
+        setVisibility(VISIBLE);
+    }
+
+    /**
+     * Locks an area of the surface to be drawn on and draws the background over it. This is called on
+     * the render thread while holding the canvas's lock.
+     * @param dirty - the area to be drawn, which the surface grows to cover any area it could not keep.
+     * @param backgroundColour - the colour to fill the area with if there is no background.
+     * @return Canvas - the canvas of the surface, or null if there is no surface to draw on.
+     */
+    Canvas lockCanvas(Rect dirty, int backgroundColour)
+    {
+        if (surfaceHolder == null)
+            return null;
+        Canvas canvas = surfaceHolder.lockCanvas(dirty);
+        if (canvas == null)
+            return null;
+        if (surfaceBackground != null)
+            surfaceBackground.draw(canvas);
+        else
+            canvas.drawColor(backgroundColour);
+        return canvas;
+    }
+
+    /**
+     * Shows what has been drawn onto the surface since it was locked.
+     * @param canvas - the canvas returned by lockCanvas().
+     */
+    void unlockCanvasAndPost(Canvas canvas)
+    {
+        surfaceHolder.unlockCanvasAndPost(canvas);
+    }
+
+    /**
+     * Keeps the surface the render thread draws onto once it has been created.
+     * @param holder - the holder of the surface.
+     */
+    @Override
+    public void surfaceCreated(SurfaceHolder holder)
+    {
+        synchronized (canvasView)
+        {
+            surfaceHolder = holder;
+        }
+    }
+
+    /**
+     * Draws the whole canvas onto a new or resized surface, as it holds nothing yet.
+     * @param holder - the holder of the surface.
+     * @param format - the pixel format of the surface.
+     * @param width - the width of the surface.
+     * @param height - the height of the surface.
+     */
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height)
+    {
+        synchronized (canvasView)
+        {
+            surfaceHolder = holder;
+            if (surfaceBackground != null)
+                surfaceBackground.setBounds(0, 0, width, height);
+            canvasView.redrawSurface(width, height);
+        }
+    }
+
+    /**
+     * Stops drawing onto the surface before it is destroyed. The render thread holds the canvas's lock
+     * while it draws, so once this returns it is no longer using the surface.
+     * @param holder - the holder of the surface.
+     */
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder)
+    {
+        synchronized (canvasView)
+        {
+            surfaceHolder = null;
+        }
+    }
+}
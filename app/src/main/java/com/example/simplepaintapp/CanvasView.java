@@ -4,98 +4,374 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Path;
-import android.graphics.PorterDuff;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
 import android.view.MotionEvent;
 import android.view.View;
 
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class which handles any drawing and interaction with the canvas.
+ *
+ * The canvas is drawn on the UI thread in onDraw(), unless the render thread is enabled, in which case
+ * the strokes are drawn on a CanvasRenderThread and the tiles are drawn onto the surface of a
+ * CanvasSurfaceView underneath this view. The drawing is then guarded by the view's lock, which the
+ * render thread holds while it draws, so any of the stroke history, tiles, or index returned by this
+ * view must only be used while holding it.
  */
 public class CanvasView extends View
 {
     private static final int DEFAULT_BG_COLOUR = Color.WHITE;
     private static final int DEFAULT_STROKE_WIDTH = 15;
-    private static final int TOUCH_TOLERANCE = 4;
 
-    private final ArrayList<DrawPath> undo;
-    private final ArrayList<DrawPath> redo;
+    private static final String SPILL_FILE_PREFIX = "history_";
+    private static final String SPILL_FILE_SUFFIX = ".spill";
 
-    private Canvas canvas;
-    private Bitmap bitmap;
-    private final Paint paint;
-    private Path path;
+    // numbers the spill file of each canvas in the process, so a recreated canvas never shares one
+    private static int spillFileCount;
+    private static final int PROGRESSIVE_REPLAY_THRESHOLD = 50;
+    private static final long REPLAY_FRAME_BUDGET = 8 * 1000 * 1000;
+    private static final int POINTER_CAPACITY = 10;
+    private static final int POOLED_BUFFERS = 4;
+    private static final int DEFAULT_UNDO_DEPTH = 200;
+    private static final int BAKE_BATCH = 50;
+
+    private final StrokeHistory history;
+    private final CheckpointStore checkpoints;
+    private final StrokeSimplifier simplifier;
+    private final StrokePool strokePool;
+    private float touchTolerance;
+
+    // the stroke of each pointer which is down, keyed by pointer id, along with the same strokes packed
+    // into an array and the stroke objects which can be re-used
+    private final IntMap<PointerStroke> pointers;
+    private PointerStroke[] liveStrokes;
+    private PointerStroke[] freeStrokes;
+    private int liveCount;
+    private int freeCount;
+    // the number of live strokes in the history, which are always its most recent strokes
+    private int activeCount;
+
+    private TileStore tiles;
+    private BaseLayer baseLayer;
+    private int undoDepth;
+    private StrokeIndex strokeIndex;
+    private final StrokeRenderer renderer;
+    private final Rect dirty;
+    private final Rect clip;
+    private final Rect area;
+    private final Rect region;
+    private final RectF bounds;
+    private final RectF tailBounds;
 
     private int currentColour;
     private int backgroundColour;
     private int previousStrokeWidth;
     private int strokeWidth;
 
-    private float x, y;
+    private long lastEventTime;
+    private long generation;
+
+    private boolean incrementalRendering;
+
+    private final MotionPredictor predictor;
+    private boolean predictiveInk;
+
+    private final Choreographer.FrameCallback replayCallback;
+    private boolean progressiveReplay;
+    private boolean replaying;
+    private int replayNext;
+    private int replayEnd;
+
+    private final MetricsRegistry metrics;
+    private final FrameTracker frameTracker;
+    private final LatencyHistogram touchLatency;
+    private final LatencyHistogram drawDuration;
+    private final LatencyHistogram replayDuration;
+    private final MetricsRegistry.Counter touchSamples;
+    private final MetricsRegistry.Counter droppedSamples;
+    private long pendingTouchTime;
+    private long replayStartTime;
+
+    private CanvasRenderThread renderThread;
+    private CanvasSurfaceView surfaceView;
+    private boolean attached;
 
-    private boolean invalidTouch;
+    private HistoryChangedListener historyChangedListener;
 
     /**
-     * Constructor which sets up the Paint object, as well as the undo and redo ArrayList objects.
+     * Constructor which sets up the StrokeRenderer object, as well as the StrokeHistory object.
      * @param context - the context of the application.
      * @param attrs - any custom xml-defined attributes.
      */
     public CanvasView(Context context, @Nullable AttributeSet attrs)
     {
         super(context, attrs);
-        // define and add set attributes for the paint object
-        paint = new Paint();
-        paint.setAntiAlias(true);
-        paint.setDither(true);
-        paint.setStyle(Paint.Style.STROKE);
-        paint.setStrokeJoin(Paint.Join.ROUND);
-        paint.setStrokeCap(Paint.Cap.ROUND);
-        paint.setXfermode(null);
-        paint.setAlpha(0xff);
-        // initialise the undo and redo ArrayList objects
-        undo = new ArrayList<>();
-        redo = new ArrayList<>();
-    }
-
-    /**
-     * Secondary constructor which handles the colours, widths, and bitmap/canvas creation.
+        // create the renderer which holds the paint object
+        renderer = new StrokeRenderer();
+        // initialise the undo and redo history, which spills old strokes into a file of its own in the cache
+        // directory; a file left by a process which was killed is emptied when it is first written to
+        File spillFile = new File(context.getCacheDir(), SPILL_FILE_PREFIX + nextSpillFileNumber()
+                + SPILL_FILE_SUFFIX);
+        history = new StrokeHistory(new StrokeSpillFile(spillFile), StrokeHistory.DEFAULT_MEMORY_BUDGET);
+        history.setOnSpillErrorListener(new StrokeHistory.SpillErrorListener()
+        {
+            /**
+             * Callback method which logs an error spilling the points of a stroke, which stay in memory.
+             * @param e - the error.
+             */
+            @Override
+            public void onSpillError(IOException e)
+            {
+                Log.w("ERROR", "" + e.getMessage());
+            }
+        });
+        checkpoints = new CheckpointStore(CheckpointStore.DEFAULT_INTERVAL, CheckpointStore.DEFAULT_MEMORY_CAP);
+        simplifier = new StrokeSimplifier(StrokeSimplifier.DEFAULT_TOLERANCE);
+        // each pointer draws its stroke into a point buffer from the same pool
+        strokePool = new StrokePool(StrokePool.DEFAULT_BUFFER_CAPACITY, POOLED_BUFFERS);
+        touchTolerance = StrokeBuilder.DEFAULT_TOUCH_TOLERANCE;
+        pointers = new IntMap<>(POINTER_CAPACITY);
+        liveStrokes = new PointerStroke[POINTER_CAPACITY];
+        freeStrokes = new PointerStroke[POINTER_CAPACITY];
+        incrementalRendering = true;
+        progressiveReplay = true;
+        undoDepth = DEFAULT_UNDO_DEPTH;
+        replayCallback = new Choreographer.FrameCallback()
+        {
+            /**
+             * Replays the next chunk of strokes before the frame is drawn.
+             * @param frameTimeNanos - the time the frame started rendering.
+             */
+            @Override
+            public void doFrame(long frameTimeNanos)
+            {
+                replayChunk();
+            }
+        };
+        // the dirty rectangle holds the area changed since the last frame
+        dirty = new Rect();
+        clip = new Rect();
+        area = new Rect();
+        region = new Rect();
+        bounds = new RectF();
+        // the predicted tails are drawn over the tiles on each frame, and never onto them; this predictor
+        // holds the horizon and the combined error of the predictors of every pointer
+        predictor = new MotionPredictor(MotionPredictor.DEFAULT_HORIZON);
+        tailBounds = new RectF();
+        // look up the metrics once, so recording them on the touch and drawing paths allocates nothing
+        metrics = new MetricsRegistry();
+        frameTracker = new FrameTracker(metrics);
+        touchLatency = metrics.histogram("touch.latency");
+        drawDuration = metrics.histogram("draw.duration");
+        replayDuration = metrics.histogram("replay.duration");
+        touchSamples = metrics.counter("touch.samples");
+        droppedSamples = metrics.counter("touch.dropped");
+        pendingTouchTime = -1;
+    }
+
+    /**
+     * Secondary constructor which handles the colours, widths, and tile store creation.
      * @param width - the width of the activity window.
      * @param height - the height of the activity window.
      */
-    public void initialise (int width, int height)
+    public synchronized void initialise (int width, int height)
     {
         // set up the colours, widths, etc
         currentColour = ColourManager.getDefaultColour(getContext());
         backgroundColour = DEFAULT_BG_COLOUR;
         previousStrokeWidth = DEFAULT_STROKE_WIDTH;
         strokeWidth = DEFAULT_STROKE_WIDTH;
-        // set the colour for the paint object
-        paint.setColor(currentColour);
-        // create a bitmap and canvas object to allow for saving as an image
-        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        canvas = new Canvas(bitmap);
+        // create an empty grid of tiles, which are only allocated once they are drawn on
+        tiles = new TileStore(width, height);
+        // strokes further back than the undo depth are baked into a layer of their own, which replays
+        // start from; a base layer for the previous size is no longer needed
+        if (baseLayer != null)
+            baseLayer.close();
+        baseLayer = new BaseLayer(width, height);
+        // index the strokes shown on the canvas so the strokes within an area can be found quickly
+        strokeIndex = new StrokeIndex(width, height);
     }
 
     /**
-     * Returns the bitmap object for the drawing.
+     * Returns a new bitmap object of the drawing, made up of the tiles which have been drawn on.
      * @return bitmap - the bitmap object.
      */
-    public Bitmap getBitmap()
+    public synchronized Bitmap getBitmap()
+    {
+        finishReplay();
+        return tiles.toBitmap();
+    }
+
+    /**
+     * Returns a copy-on-write snapshot of the drawing, which can be read on another thread while
+     * drawing continues.
+     * @return Snapshot - the snapshot of the tiles.
+     */
+    public synchronized TileStore.Snapshot snapshot()
+    {
+        finishReplay();
+        return tiles.snapshot(generation);
+    }
+
+    /**
+     * Returns the strokes shown on the canvas, in the order they were drawn, including the baked strokes
+     * and leaving out any stroke which is still being drawn. The spilled points of the strokes stay
+     * readable on another thread, even if the canvas is cleared, until releaseCommittedStrokes() is called.
+     * @return ArrayList - a new list of the strokes.
+     */
+    public synchronized ArrayList<DrawPath> getCommittedStrokes()
+    {
+        history.retainSpilled();
+        // the strokes still being drawn are the most recent ones
+        int count = history.size() - activeCount;
+        ArrayList<DrawPath> strokes = new ArrayList<>(history.getBakedCount() + count);
+        for (int i = 0; i < history.getBakedCount(); i++)
+            strokes.add(history.getBaked(i));
+        for (int i = 0; i < count; i++)
+            strokes.add(history.get(i));
+        return strokes;
+    }
+
+    /**
+     * Stops keeping the spilled points of the strokes returned by getCommittedStrokes() readable, once
+     * they are no longer being read.
+     */
+    public void releaseCommittedStrokes()
+    {
+        history.releaseSpilled();
+    }
+
+    /**
+     * Returns the content generation of the drawing, which increases every time the drawing changes.
+     * @return generation - the content generation.
+     */
+    public synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Returns the store of tiles which hold the drawing.
+     * @return tiles - the tile store.
+     */
+    public TileStore getTileStore()
+    {
+        return tiles;
+    }
+
+    /**
+     * Returns the base layer which the strokes beyond the undo depth are baked into.
+     * @return baseLayer - the base layer.
+     */
+    public BaseLayer getBaseLayer()
+    {
+        return baseLayer;
+    }
+
+    /**
+     * Returns the spatial index of the strokes shown on the canvas, whose results are positions in the
+     * stroke history. A stroke is only indexed once it has been committed.
+     * @return strokeIndex - the stroke index.
+     */
+    public StrokeIndex getStrokeIndex()
+    {
+        return strokeIndex;
+    }
+
+    /**
+     * Returns the store of raster checkpoints, which allows its interval and memory cap to be configured.
+     * @return checkpoints - the checkpoint store.
+     */
+    public CheckpointStore getCheckpointStore()
+    {
+        return checkpoints;
+    }
+
+    /**
+     * Returns the history of strokes, which allows its memory budget to be configured and its
+     * memory usage to be read.
+     * @return history - the stroke history.
+     */
+    public StrokeHistory getStrokeHistory()
     {
-        return bitmap;
+        return history;
+    }
+
+    /**
+     * Returns the simplifier applied to each committed stroke, which allows its tolerance to be
+     * configured and its statistics to be read.
+     * @return simplifier - the stroke simplifier.
+     */
+    public StrokeSimplifier getStrokeSimplifier()
+    {
+        return simplifier;
+    }
+
+    /**
+     * Sets the distance, in pixels along either axis, a touch sample must move from the last point added
+     * to a stroke before it is added itself. This applies from the next stroke each pointer draws.
+     * @param touchTolerance - the touch tolerance in pixels.
+     */
+    public synchronized void setTouchTolerance(float touchTolerance)
+    {
+        this.touchTolerance = Math.max(0, touchTolerance);
+    }
+
+    /**
+     * Returns the touch tolerance.
+     * @return touchTolerance - the touch tolerance in pixels.
+     */
+    public float getTouchTolerance()
+    {
+        return touchTolerance;
+    }
+
+    /**
+     * Returns the registry of the canvas's metrics, which holds the touch-to-pixel latency, the duration
+     * of each draw and replay, and the frame timings of the display.
+     * @return metrics - the metrics registry.
+     */
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return metrics;
+    }
+
+    /**
+     * Sets the listener which is notified of each committed stroke and each undo, redo, and clear.
+     * @param historyChangedListener - the listener.
+     */
+    public void setOnHistoryChangedListener(HistoryChangedListener historyChangedListener)
+    {
+        this.historyChangedListener = historyChangedListener;
+    }
+
+    /**
+     * Returns whether any stroke is being drawn, in which case the history may hold strokes which have
+     * not been committed yet.
+     * @return boolean - whether a stroke is being drawn.
+     */
+    public synchronized boolean isStrokeActive()
+    {
+        return liveCount > 0;
     }
 
     /**
      * Sets the current pen colour.
      * @param colour - the colour.
      */
-    public void setColour(int colour)
+    public synchronized void setColour(int colour)
     {
         currentColour = colour;
     }
@@ -131,7 +407,7 @@ public class CanvasView extends View
      * Sets the current stroke width value.
      * @param strokeWidth - the stroke width.
      */
-    public void setStrokeWidth(int strokeWidth)
+    public synchronized void setStrokeWidth(int strokeWidth)
     {
         this.strokeWidth = strokeWidth;
     }
@@ -145,183 +421,1237 @@ public class CanvasView extends View
         return strokeWidth;
     }
 
+    /**
+     * Returns the time of the most recent touch sample which was processed.
+     * @return lastEventTime - the time of the sample, in the SystemClock.uptimeMillis() time base.
+     */
+    public long getLastEventTime()
+    {
+        return lastEventTime;
+    }
+
+    /**
+     * Sets whether the stroke being drawn is rasterized incrementally, one segment at a time, or
+     * re-drawn in full on every frame.
+     * @param incrementalRendering - whether to rasterize only the newly added segments.
+     */
+    public synchronized void setIncrementalRendering(boolean incrementalRendering)
+    {
+        this.incrementalRendering = incrementalRendering;
+    }
+
+    /**
+     * Returns whether the stroke being drawn is rasterized incrementally.
+     * @return incrementalRendering - whether only the newly added segments are rasterized.
+     */
+    public boolean isIncrementalRendering()
+    {
+        return incrementalRendering;
+    }
+
+    /**
+     * Sets whether a predicted tail is drawn ahead of the stroke being drawn, so the ink appears to keep
+     * up with the pen. The tail is replaced as the real samples arrive and is never added to the stroke.
+     * Prediction is only used with incremental rendering.
+     * @param predictiveInk - whether to draw the predicted tail.
+     */
+    public synchronized void setPredictiveInk(boolean predictiveInk)
+    {
+        this.predictiveInk = predictiveInk;
+    }
+
+    /**
+     * Returns whether a predicted tail is drawn ahead of the stroke being drawn.
+     * @return predictiveInk - whether the predicted tail is drawn.
+     */
+    public boolean isPredictiveInk()
+    {
+        return predictiveInk;
+    }
+
+    /**
+     * Returns the predictor of the pen's motion, which allows its horizon to be tuned and its prediction
+     * error to be read. Each pointer is followed by a predictor of its own, which takes its horizon from
+     * this one when its stroke starts and adds its error to this one's when its stroke ends.
+     * @return predictor - the motion predictor.
+     */
+    public MotionPredictor getMotionPredictor()
+    {
+        return predictor;
+    }
+
+    /**
+     * Sets whether large numbers of strokes, such as those of a recovered drawing, are replayed onto the
+     * tiles in chunks across frames rather than all at once. The canvas can be drawn on while the
+     * strokes are replayed.
+     * @param progressiveReplay - whether to replay the strokes across frames.
+     */
+    public synchronized void setProgressiveReplay(boolean progressiveReplay)
+    {
+        this.progressiveReplay = progressiveReplay;
+        if (!progressiveReplay)
+            finishReplay();
+    }
+
+    /**
+     * Sets the number of the most recent strokes which can be undone. Once more strokes than that have
+     * been committed, the oldest are baked into the base layer in the background, so replays only ever
+     * draw the strokes which can be undone however long the drawing session has been. The drawing on
+     * the canvas does not change when strokes are baked.
+     * @param undoDepth - the undo depth, or Integer.MAX_VALUE to never bake strokes.
+     */
+    public synchronized void setUndoDepth(int undoDepth)
+    {
+        this.undoDepth = Math.max(1, undoDepth);
+        // nothing can be baked until the canvas has been initialised
+        if (baseLayer != null)
+            bakeHistory();
+    }
+
+    /**
+     * Returns the number of the most recent strokes which can be undone.
+     * @return undoDepth - the undo depth.
+     */
+    public int getUndoDepth()
+    {
+        return undoDepth;
+    }
+
+    /**
+     * Returns whether large numbers of strokes are replayed across frames.
+     * @return progressiveReplay - whether the strokes are replayed across frames.
+     */
+    public boolean isProgressiveReplay()
+    {
+        return progressiveReplay;
+    }
+
+    /**
+     * Returns whether strokes are still being replayed onto the tiles, in which case the canvas only
+     * shows some of the drawing.
+     * @return replaying - whether a replay is in progress.
+     */
+    public synchronized boolean isReplaying()
+    {
+        return replaying;
+    }
+
+    /**
+     * Moves the drawing of the canvas onto a dedicated render thread, which draws the tiles onto the
+     * surface of a CanvasSurfaceView. Touch samples are passed to the render thread through a lock-free
+     * queue, so touch dispatch on the UI thread never waits for strokes to be drawn or replayed. Replays
+     * are always run across frames on the render thread. This must be called before the view is attached
+     * to its window.
+     * @param surfaceView - the hidden surface view, which lies under this view and covers the same area.
+     */
+    public void enableRenderThread(CanvasSurfaceView surfaceView)
+    {
+        if (renderThread != null)
+            return;
+        if (attached)
+            throw new IllegalStateException("The render thread must be enabled before the view is attached");
+        // the background is drawn onto the surface under the tiles, as this view's own background would
+        // cover the surface
+        this.surfaceView = surfaceView;
+        surfaceView.attach(this, getBackground());
+        setBackground(null);
+        setWillNotDraw(true);
+        renderThread = new CanvasRenderThread(this, TouchSampleQueue.DEFAULT_CAPACITY);
+        renderThread.start();
+    }
+
+    /**
+     * Returns whether the canvas is drawn on a dedicated render thread.
+     * @return boolean - whether the render thread is enabled.
+     */
+    public boolean isRenderThreadEnabled()
+    {
+        return renderThread != null;
+    }
+
     /**
      * Performs an undo function, whereby the most recent action is undone.
      */
     public void undo ()
+    {
+        if (!sendToRenderThread(CanvasRenderThread.MESSAGE_UNDO))
+            undoStroke();
+    }
+
+    /**
+     * Performs a redo function, whereby the most undone action is redone.
+     */
+    public void redo ()
+    {
+        if (!sendToRenderThread(CanvasRenderThread.MESSAGE_REDO))
+            redoStroke();
+    }
+
+    /**
+     * Clears the canvas of any drawings and clear the stroke history.
+     */
+    public void clear()
+    {
+        if (!sendToRenderThread(CanvasRenderThread.MESSAGE_CLEAR))
+            clearDrawing();
+    }
+
+    /**
+     * Passes an undo, redo, or clear to the render thread, if it is enabled and is not the calling thread,
+     * so that it is run after every touch sample which was queued before it.
+     * @param what - the message, which is one of the CanvasRenderThread.MESSAGE_ constants.
+     * @return boolean - whether the message was passed to the render thread.
+     */
+    private boolean sendToRenderThread(int what)
+    {
+        if (renderThread == null || renderThread.isCurrentThread())
+            return false;
+        renderThread.send(what);
+        return true;
+    }
+
+    /**
+     * Undoes the most recent stroke.
+     */
+    private synchronized void undoStroke ()
     {
         // if the user has performed an action
-        if (undo.size() > 0)
+        DrawPath drawPath = history.undo();
+        if (drawPath != null)
         {
-            // add the drawn object to the redo list and re-draw
-            redo.add(undo.remove(undo.size() - 1));
-            drawPaths();
+            // a stroke which is still being drawn is only reported once it is committed, and the strokes
+            // being drawn are always the most recent
+            if (activeCount > 0)
+            {
+                findStroke(drawPath).undone = true;
+                activeCount--;
+            } else
+            {
+                strokeIndex.removeLast();
+                if (historyChangedListener != null)
+                    historyChangedListener.onUndo();
+            }
+            // the drawn object was moved to the redo list, so re-draw the area it covered
+            redrawRegion(drawPath);
         }
     }
 
     /**
-     * Performs a redo function, whereby the most undone action is redone.
+     * Redoes the most recently undone stroke.
      */
-    public void redo ()
+    private synchronized void redoStroke ()
     {
         // if the user has performed an action
-        if (redo.size() > 0)
+        DrawPath drawPath = history.redo();
+        if (drawPath != null)
         {
-            // add the drawn object to the undo list and re-draw
-            undo.add(redo.remove(redo.size() - 1));
-            drawPaths();
+            PointerStroke stroke = findStroke(drawPath);
+            boolean below = false;
+            if (stroke != null)
+            {
+                stroke.undone = false;
+                activeCount++;
+            } else
+            {
+                // keep the strokes which are being drawn above every committed stroke
+                if (activeCount > 0)
+                {
+                    history.move(history.size() - 1, history.size() - 1 - activeCount);
+                    below = true;
+                }
+                strokeIndex.add(drawPath);
+                if (historyChangedListener != null)
+                    historyChangedListener.onRedo();
+            }
+            if (below)
+            {
+                // the stroke lies under the strokes being drawn, so draw the area again in that order, as
+                // a replay would
+                redrawRegion(drawPath);
+            } else
+            {
+                // the drawn object was moved to the undo list, so draw it on top as it is now the most
+                // recent; only the area covered by the stroke has changed
+                drawStroke(drawPath);
+                invalidateDirty();
+            }
         }
     }
 
     /**
-     * Clears the canvas of any drawings and clear the ArrayList objects.
+     * Frees every tile and empties the stroke history, then reports the clear.
      */
-    public void clear()
+    private synchronized void clearDrawing ()
     {
-        // reset the background color and set the background to be a clear
+        reset();
+        if (historyChangedListener != null)
+            historyChangedListener.onClear();
+        invalidateAll();
+    }
+
+    /**
+     * Replaces the drawing with the one recovered from an autosave journal, which then records every
+     * later change. Nothing recovered is reported to the history listener.
+     * @param journal - the autosave journal.
+     * @return boolean - whether anything was recovered.
+     * @throws IOException - if the journal could not be opened.
+     */
+    public synchronized boolean recover(AutosaveJournal journal) throws IOException
+    {
+        reset();
+        boolean recovered = journal.recover(history);
+        bakeRecovered();
+        indexHistory();
+        drawPaths();
+        return recovered;
+    }
+
+    /**
+     * Compacts an autosave journal into a new base document holding the current strokes, unless a stroke
+     * is still being drawn and so has not been recorded yet. The strokes are read while holding the lock,
+     * so the render thread cannot change the history part way through.
+     * @param journal - the autosave journal which records the changes to the drawing.
+     */
+    public synchronized void compactJournal(AutosaveJournal journal)
+    {
+        if (liveCount > 0)
+            return;
+        // the baked strokes are still part of the drawing, underneath the strokes which can be undone
+        journal.compact(tiles.getWidth(), tiles.getHeight(), history.getTimeline(), history.getBakedCount(),
+                history.getBakedCount() + history.size());
+    }
+
+    /**
+     * Rasterizes the strokes which were baked before the drawing was saved onto the empty base layer, so
+     * replays start from them as they would have before.
+     */
+    private void bakeRecovered()
+    {
+        int count = history.getBakedCount();
+        if (count == 0)
+            return;
+        ArrayList<DrawPath> strokes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            strokes.add(history.getBaked(i));
+        baseLayer.bake(strokes);
+    }
+
+    /**
+     * Adds every stroke in the history to the empty stroke index. The bounding boxes of strokes recovered
+     * from a base document are read from its index, so the strokes are not paged in.
+     */
+    private void indexHistory()
+    {
+        for (int i = 0; i < history.size(); i++)
+            strokeIndex.add(history.get(i));
+    }
+
+    /**
+     * Frees every tile and empties the stroke history and the checkpoints.
+     */
+    private void reset()
+    {
+        // reset the background color and free every tile to leave the background clear
+        stopReplay();
+        discardStrokes();
         backgroundColour = DEFAULT_BG_COLOUR;
-        this.canvas.drawColor(backgroundColour, PorterDuff.Mode.CLEAR);
-        // empty the lists and redraw the canvas
-        undo.clear();
-        redo.clear();
-        invalidate();
+        tiles.clear();
+        baseLayer.clear();
+        generation++;
+        // empty the lists and the index
+        history.clear();
+        strokeIndex.clear();
+        checkpoints.clear();
     }
 
     /**
-     * Handle any touches which are made on the CanvasView object.
+     * Handle any touches which are made on the CanvasView object, by a single pointer.
      * @param x - the x-ordinate of the touch.
      * @param y - the y-ordinate of the touch.
      * @param action - the action being performed in the touch.
      */
     public void handleTouches (float x, float y, int action)
+    {
+        long time = SystemClock.uptimeMillis();
+        if (renderThread != null)
+        {
+            queueTouch(0, x, y, time, action);
+            renderThread.wake();
+            return;
+        }
+        trackTouch(time, 1);
+        processTouch(0, x, y, time, action);
+        invalidateTouches();
+    }
+
+    /**
+     * Handle a touch event which is made on the CanvasView object, including any historical samples
+     * which were batched into it since the previous event. All of the samples are processed in a single
+     * pass and the canvas is redrawn once for the whole batch. Every pointer draws a stroke of its own.
+     * @param event - the touch event.
+     */
+    public void handleTouches (MotionEvent event)
+    {
+        int action = event.getActionMasked();
+        if (renderThread != null)
+        {
+            queueTouches(event, action);
+            return;
+        }
+        if (action == MotionEvent.ACTION_MOVE)
+        {
+            // process the samples which were reported between this event and the previous one, for every
+            // pointer, and then the samples of the event itself
+            int historySize = event.getHistorySize();
+            int pointerCount = event.getPointerCount();
+            trackTouch(historySize > 0 ? event.getHistoricalEventTime(0) : event.getEventTime(),
+                    (historySize + 1) * pointerCount);
+            for (int i = 0; i < historySize; i++)
+            {
+                for (int p = 0; p < pointerCount; p++)
+                    touchMove(event.getPointerId(p), event.getHistoricalX(p, i), event.getHistoricalY(p, i),
+                            event.getHistoricalEventTime(i));
+            }
+            for (int p = 0; p < pointerCount; p++)
+                touchMove(event.getPointerId(p), event.getX(p), event.getY(p), event.getEventTime());
+        } else
+        {
+            // only the pointer which went down or up has changed
+            trackTouch(event.getEventTime(), 1);
+            int index = event.getActionIndex();
+            processTouch(event.getPointerId(index), event.getX(index), event.getY(index), event.getEventTime(),
+                    action);
+        }
+        invalidateTouches();
+    }
+
+    /**
+     * Queues the samples of a touch event for the render thread, including any historical samples, and
+     * wakes the render thread to draw them.
+     * @param event - the touch event.
+     * @param action - the action of the event.
+     */
+    private void queueTouches (MotionEvent event, int action)
+    {
+        if (action == MotionEvent.ACTION_MOVE)
+        {
+            int pointerCount = event.getPointerCount();
+            for (int i = 0; i < event.getHistorySize(); i++)
+            {
+                for (int p = 0; p < pointerCount; p++)
+                    queueTouch(event.getPointerId(p), event.getHistoricalX(p, i), event.getHistoricalY(p, i),
+                            event.getHistoricalEventTime(i), action);
+            }
+            for (int p = 0; p < pointerCount; p++)
+                queueTouch(event.getPointerId(p), event.getX(p), event.getY(p), event.getEventTime(), action);
+        } else
+        {
+            int index = event.getActionIndex();
+            queueTouch(event.getPointerId(index), event.getX(index), event.getY(index), event.getEventTime(),
+                    action);
+        }
+        renderThread.wake();
+    }
+
+    /**
+     * Queues a single touch sample for the render thread. If the render thread has fallen so far behind
+     * that the queue is full, a move is dropped, but the start or end of a stroke waits for space.
+     * @param pointerId - the id of the pointer which made the touch.
+     * @param x - the x-ordinate of the touch.
+     * @param y - the y-ordinate of the touch.
+     * @param time - the time of the touch, in the SystemClock.uptimeMillis() time base.
+     * @param action - the action being performed in the touch.
+     */
+    private void queueTouch (int pointerId, float x, float y, long time, int action)
+    {
+        TouchSampleQueue queue = renderThread.getQueue();
+        while (!queue.offer(pointerId, x, y, time, action))
+        {
+            if (action == MotionEvent.ACTION_MOVE)
+            {
+                droppedSamples.increment();
+                return;
+            }
+            renderThread.wake();
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Draws every touch sample which has been queued for the render thread, and then redraws the canvas
+     * once for all of them. This is called on the render thread.
+     * @param queue - the queue of touch samples.
+     */
+    synchronized void drainTouches (TouchSampleQueue queue)
+    {
+        if (!queue.poll())
+            return;
+        do
+        {
+            trackTouch(queue.getTime(), 1);
+            processTouch(queue.getPointerId(), queue.getX(), queue.getY(), queue.getTime(), queue.getAction());
+        } while (queue.poll());
+        invalidateTouches();
+    }
+
+    /**
+     * Counts the touch samples which are about to be processed, and keeps the time of the oldest sample
+     * which has not been drawn yet so the latency to the next frame can be measured.
+     * @param time - the time of the oldest of the samples, in the SystemClock.uptimeMillis() time base.
+     * @param count - the number of samples.
+     */
+    private void trackTouch (long time, int count)
+    {
+        touchSamples.add(count);
+        if (pendingTouchTime < 0)
+            pendingTouchTime = time;
+    }
+
+    /**
+     * Determines which action is being performed in a touch and handles it.
+     * @param pointerId - the id of the pointer which made the touch.
+     * @param x - the x-ordinate of the touch.
+     * @param y - the y-ordinate of the touch.
+     * @param time - the time of the touch, in the SystemClock.uptimeMillis() time base.
+     * @param action - the action being performed in the touch.
+     */
+    private void processTouch (int pointerId, float x, float y, long time, int action)
     {
         switch (action)
         {
-            // determine which action is being performed and redraw the canvas
+            // determine which action is being performed
             case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_POINTER_DOWN:
                 // the user is pressing down on the canvas
-                touchStart(x, y);
-                invalidate();
+                touchStart(pointerId, x, y, time);
                 break;
             case MotionEvent.ACTION_MOVE:
                 // the user is moving while pressing down on the canvas
-                touchMove(x, y);
-                invalidate();
+                touchMove(pointerId, x, y, time);
                 break;
-            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_POINTER_UP:
                 // the user has lifted up after pressing down on the canvas
-                touchUp();
-                invalidate();
+                touchUp(pointerId, time);
+                break;
+            case MotionEvent.ACTION_UP:
+                // the last finger has lifted, so end its stroke and any stroke whose finger lifted without
+                // the canvas being told, such as during a pinch
+                touchUp(pointerId, time);
+                while (liveCount > 0)
+                    touchUp(liveStrokes[liveCount - 1].pointerId, time);
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                // the gesture was taken away from the canvas, so end every stroke where it is
+                while (liveCount > 0)
+                    touchUp(liveStrokes[liveCount - 1].pointerId, time);
                 break;
         }
     }
 
     /**
-     * Handle the user's first touch on the canvas.
+     * Redraws the canvas after one or more touches have been processed.
+     */
+    private void invalidateTouches ()
+    {
+        if (incrementalRendering)
+        {
+            for (int i = 0; i < liveCount; i++)
+            {
+                if (predictiveInk || liveStrokes[i].tailVisible)
+                    updateTail(liveStrokes[i]);
+            }
+            // redraw only the area covered by the segments drawn for the touches
+            invalidateDirty();
+        } else
+        {
+            // the whole path is re-drawn, so the whole view has to be redrawn
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Predicts where a pointer is heading and moves the tail of its stroke to it, adding the areas of the
+     * old and new tails to the dirty rectangle. The tail is hidden if the stroke has been undone or
+     * can't be predicted.
+     * @param stroke - the stroke of the pointer.
+     */
+    private void updateTail (PointerStroke stroke)
+    {
+        hideTail(stroke);
+        stroke.tailVisible = predictiveInk && !stroke.undone && stroke.predictor.predict()
+                && renderer.prepareTail(stroke.drawPath, stroke.predictor.getPredictedX(),
+                stroke.predictor.getPredictedY(), tailBounds);
+        if (stroke.tailVisible)
+        {
+            float inset = stroke.drawPath.getWidth() / 2f + 1;
+            stroke.tailArea.set((int) Math.floor(tailBounds.left - inset), (int) Math.floor(tailBounds.top - inset),
+                    (int) Math.ceil(tailBounds.right + inset), (int) Math.ceil(tailBounds.bottom + inset));
+            addDirty(stroke.tailArea);
+        }
+    }
+
+    /**
+     * Hides the tail of a stroke, adding its area to the dirty rectangle.
+     * @param stroke - the stroke of the pointer.
+     */
+    private void hideTail (PointerStroke stroke)
+    {
+        if (stroke.tailVisible)
+            addDirty(stroke.tailArea);
+        stroke.tailVisible = false;
+    }
+
+    /**
+     * Adds an area to the dirty rectangle.
+     * @param changed - the area which changed.
+     */
+    private void addDirty (Rect changed)
+    {
+        if (dirty.isEmpty())
+            dirty.set(changed);
+        else
+            dirty.union(changed);
+    }
+
+    /**
+     * Draws a whole stroke onto the tiles it covers and adds its area to the dirty rectangle.
+     * @param drawPath - the stroke to be drawn.
+     */
+    private void drawStroke (DrawPath drawPath)
+    {
+        if (prepare(drawPath))
+        {
+            // the smoothed curves lie within the bounding box of the points, which prepare has paged in
+            StrokePoints points = drawPath.getResidentPoints();
+            bounds.set(points.getMinX(), points.getMinY(), points.getMaxX(), points.getMaxY());
+            drawPrepared(drawPath.getWidth());
+        }
+    }
+
+    /**
+     * Prepares the renderer to draw a whole stroke, skipping the stroke if its points could not be paged in.
+     * @param drawPath - the stroke to be drawn.
+     * @return boolean - whether there is anything to draw.
+     */
+    private boolean prepare (DrawPath drawPath)
+    {
+        try
+        {
+            return renderer.prepare(drawPath);
+        } catch (IOException e)
+        {
+            Log.w("ERROR", "" + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Draws the path prepared by the renderer onto the tiles covered by the bounds, inflated by half a
+     * stroke width plus a pixel for the anti-aliased edge, and adds that area to the dirty rectangle.
+     * @param width - the stroke width of the prepared path.
+     */
+    private void drawPrepared (float width)
+    {
+        float inset = width / 2 + 1;
+        area.set((int) Math.floor(bounds.left - inset), (int) Math.floor(bounds.top - inset),
+                (int) Math.ceil(bounds.right + inset), (int) Math.ceil(bounds.bottom + inset));
+        tiles.draw(renderer, area);
+        generation++;
+        addDirty(area);
+    }
+
+    /**
+     * Invalidates the dirty rectangle, if anything has been drawn since the last frame.
+     */
+    private void invalidateDirty ()
+    {
+        if (dirty.isEmpty())
+            return;
+        if (renderThread != null)
+            renderThread.requestFrame();
+        else
+            invalidate(dirty);
+    }
+
+    /**
+     * Invalidates the whole view.
+     */
+    private void invalidateAll ()
+    {
+        if (renderThread != null)
+        {
+            dirty.set(0, 0, getWidth(), getHeight());
+            renderThread.requestFrame();
+        } else
+        {
+            invalidate();
+        }
+    }
+
+    /**
+     * Handle the first touch of a pointer on the canvas.
+     * @param pointerId - the id of the pointer.
      * @param x - the x-ordinate of the touch.
      * @param y - the y-ordinate of the touch.
+     * @param time - the time of the touch.
      */
-    private void touchStart (float x, float y)
+    private void touchStart (int pointerId, float x, float y, long time)
     {
+        lastEventTime = time;
+        // finish the previous stroke of the pointer if it never went up
+        touchUp(pointerId, time);
         if(Math.abs(this.getHeight() - y) < 50 || y < 30)
         {
-            // ensure the user isn't touching near the status or navigation bar
-            invalidTouch = true;
-        } else
-        {
-            // create a new Path object
-            path = new Path();
-            // create a new DrawPath object
-            DrawPath drawPath = new DrawPath(currentColour, strokeWidth, path);
-            undo.add(drawPath);
-            // reset the path and move it to the coordinates
-            path.reset();
-            path.moveTo(x, y);
-            // update x and y global variables
-            this.x = x;
-            this.y = y;
+            // ensure the user isn't touching near the status or navigation bar; the pointer is given no
+            // stroke, so its moves are ignored until it goes up
+            return;
         }
+        // any checkpoint taken after the strokes which have been undone is now out of date
+        checkpoints.invalidateFrom(history.size());
+        // create a new DrawPath object which starts at the coordinates
+        PointerStroke stroke = obtainStroke(pointerId);
+        stroke.drawPath = stroke.builder.begin(x, y, time, currentColour, strokeWidth);
+        stroke.predictor.setHorizon(predictor.getHorizon());
+        stroke.predictor.reset();
+        stroke.predictor.add(x, y, time);
+        history.add(stroke.drawPath);
+        activeCount++;
     }
 
     /**
-     * Handle the movement performed after the first touch.
+     * Handle the movement of a pointer performed after its first touch.
+     * @param pointerId - the id of the pointer.
      * @param x - the x-ordinate of the touch.
      * @param y - the y-ordinate of the touch.
+     * @param time - the time of the touch.
      */
-    private void touchMove(float x, float y)
+    private void touchMove(int pointerId, float x, float y, long time)
     {
-        // if the touch is not invalid
-        if (!invalidTouch)
+        lastEventTime = time;
+        PointerStroke stroke = pointers.get(pointerId);
+        if (stroke == null)
+            return;
+        // the predictor follows every sample, including those too close to the last point to be added
+        if (predictiveInk)
+            stroke.predictor.add(x, y, time);
+        // add the touched coordinates to the path once they have moved further than the minimum tolerance,
+        // and draw them unless the stroke has been undone while it is drawn
+        if (stroke.builder.add(x, y, time) && !stroke.undone)
         {
-            // calculate the difference in x and y
-            float dx = Math.abs(x - this.x);
-            float dy = Math.abs(y - this.y);
-            // if the difference in x or y is greater than the minimum tolerance
-            if ((dx >= TOUCH_TOLERANCE || dy >= TOUCH_TOLERANCE))
+            if (incrementalRendering)
             {
-                // move the path to the touched coordinates
-                path.quadTo(this.x, this.y, (x + this.x) / 2, (y + this.y) / 2);
-                // update x and y global variables
-                this.x = x;
-                this.y = y;
+                // rasterize only the curve which was just added to the path
+                if (renderer.prepareLastSegment(stroke.drawPath, false, bounds))
+                    drawPrepared(stroke.drawPath.getWidth());
             }
         }
     }
 
     /**
-     * Handle the end of the touch by the user.
+     * Handle the end of the touch of a pointer, committing its stroke.
+     * @param pointerId - the id of the pointer.
+     * @param time - the time of the touch.
+     */
+    private void touchUp(int pointerId, long time)
+    {
+        lastEventTime = time;
+        PointerStroke stroke = pointers.remove(pointerId);
+        if (stroke == null)
+            return;
+        DrawPath drawPath = stroke.drawPath;
+        boolean undone = stroke.undone;
+        // the path ends with a line to the last point
+        if (!undone)
+        {
+            if (incrementalRendering)
+            {
+                // rasterize the closing line
+                if (renderer.prepareLastSegment(drawPath, true, bounds))
+                    drawPrepared(drawPath.getWidth());
+            } else
+            {
+                // the stroke is no longer re-drawn on each frame, so draw it in full once more
+                drawStroke(drawPath);
+            }
+        }
+        hideTail(stroke);
+        // drop the nearly collinear points so later replays have less to draw, then move the points
+        // out of the pooled buffer they were drawn into, as no more points will be added
+        stroke.builder.end();
+        predictor.mergeStatistics(stroke.predictor);
+        releaseStroke(stroke);
+        if (!undone)
+        {
+            // strokes are committed in the order they end, so move the stroke below any which are still
+            // being drawn, which keeps the committed strokes in the order they were reported
+            int position = history.size() - activeCount;
+            int index = history.size() - 1;
+            while (history.get(index) != drawPath)
+                index--;
+            history.move(index, position);
+            activeCount--;
+            // index the stroke now that its points are final
+            strokeIndex.add(drawPath);
+        }
+        // the stroke is now final, so report it, along with an undo which happened while it was drawn
+        if (historyChangedListener != null)
+            historyChangedListener.onStrokeCommitted(drawPath, undone);
+        // once no stroke is being drawn the tiles hold every stroke, so snapshot them if a checkpoint is
+        // due, unless some of the strokes have not been replayed yet
+        if (activeCount == 0 && incrementalRendering && !replaying && checkpoints.isDue(history.size()))
+            checkpoints.capture(history.size(), tiles);
+        // bake the oldest strokes once there are more than can be undone, then spill the oldest strokes
+        // if the history has grown past its memory budget
+        bakeHistory();
+        trimHistory();
+    }
+
+    /**
+     * Spills the points of the oldest strokes if the history has grown past its memory budget, keeping
+     * the strokes which are still being drawn in memory.
+     */
+    private void trimHistory ()
+    {
+        history.trimToBudget(Math.max(1, activeCount));
+    }
+
+    /**
+     * Bakes the oldest committed strokes into the base layer once they are further back than the undo
+     * depth by a whole batch, so the stroke index and the checkpoints are only rebuilt once per batch.
+     * The strokes are already drawn on the tiles, so nothing on the canvas changes.
+     */
+    private void bakeHistory ()
+    {
+        // a replay in progress reads the strokes by their positions, which baking would move
+        int committed = history.size() - activeCount;
+        if (replaying || committed - undoDepth < BAKE_BATCH)
+            return;
+        int count = committed - undoDepth;
+        baseLayer.bake(history.bake(count));
+        checkpoints.rebase(count);
+        // the strokes left have moved down by the number baked, so index them again
+        strokeIndex.clear();
+        for (int i = 0; i < committed - count; i++)
+            strokeIndex.add(history.get(i));
+    }
+
+    /**
+     * Returns a stroke object for a pointer which has gone down, re-using one from an earlier pointer
+     * if there is one, so a pointer only causes allocation if more pointers are down than ever before.
+     * @param pointerId - the id of the pointer.
+     * @return PointerStroke - the stroke object, which holds no stroke yet.
+     */
+    private PointerStroke obtainStroke (int pointerId)
+    {
+        if (liveCount == liveStrokes.length)
+        {
+            liveStrokes = Arrays.copyOf(liveStrokes, liveCount * 2);
+            freeStrokes = Arrays.copyOf(freeStrokes, liveCount * 2);
+        }
+        PointerStroke stroke;
+        if (freeCount > 0)
+        {
+            stroke = freeStrokes[--freeCount];
+            freeStrokes[freeCount] = null;
+        } else
+        {
+            stroke = new PointerStroke(new StrokeBuilder(simplifier, touchTolerance, strokePool));
+        }
+        stroke.builder.setTouchTolerance(touchTolerance);
+        stroke.pointerId = pointerId;
+        stroke.undone = false;
+        stroke.slot = liveCount;
+        liveStrokes[liveCount++] = stroke;
+        pointers.put(pointerId, stroke);
+        return stroke;
+    }
+
+    /**
+     * Returns the stroke object of a pointer whose stroke has ended, to be re-used by a later pointer.
+     * The pointer must already have been removed from the map of pointers.
+     * @param stroke - the stroke object.
+     */
+    private void releaseStroke (PointerStroke stroke)
+    {
+        // move the last live stroke into the slot, so the live strokes stay packed
+        PointerStroke last = liveStrokes[--liveCount];
+        liveStrokes[stroke.slot] = last;
+        last.slot = stroke.slot;
+        liveStrokes[liveCount] = null;
+        stroke.drawPath = null;
+        freeStrokes[freeCount++] = stroke;
+    }
+
+    /**
+     * Finds the stroke object of a stroke which is still being drawn.
+     * @param drawPath - the stroke.
+     * @return PointerStroke - the stroke object, or null if the stroke is not being drawn.
      */
-    private void touchUp()
+    private PointerStroke findStroke (DrawPath drawPath)
     {
-        // if the touch is not invalid, draw a line to the point
-        if (!invalidTouch)
-            path.lineTo(this.x, this.y);
-        // reset the invalid pointer
-        invalidTouch = false;
+        for (int i = 0; i < liveCount; i++)
+        {
+            if (liveStrokes[i].drawPath == drawPath)
+                return liveStrokes[i];
+        }
+        return null;
+    }
+
+    /**
+     * Ends every stroke which is being drawn without committing it, as the strokes are about to be
+     * replaced. The pointers are then ignored until they go up.
+     */
+    private void discardStrokes ()
+    {
+        while (liveCount > 0)
+        {
+            PointerStroke stroke = liveStrokes[liveCount - 1];
+            pointers.remove(stroke.pointerId);
+            stroke.builder.end();
+            stroke.predictor.resetStatistics();
+            stroke.tailVisible = false;
+            releaseStroke(stroke);
+        }
+        activeCount = 0;
+    }
+
+    /**
+     * Re-draws only the area covered by a stroke which has been undone, or redone underneath the strokes
+     * being drawn, by erasing it and drawing the strokes which overlap it again, clipped to the area. If
+     * more strokes overlap the area than would be replayed from the nearest checkpoint, every stroke is
+     * re-drawn instead.
+     * @param undone - the stroke whose area has changed.
+     */
+    private void redrawRegion (DrawPath undone)
+    {
+        // a replay in progress will draw the strokes in the area anyway
+        if (replaying)
+        {
+            drawPaths();
+            return;
+        }
+        // read the bounds from the points, as a stroke undone while it is drawn is not final yet
+        StrokePoints points;
+        try
+        {
+            points = undone.getPoints();
+        } catch (IOException e)
+        {
+            Log.w("ERROR", "" + e.getMessage());
+            drawPaths();
+            return;
+        }
+        float inset = undone.getWidth() / 2f + 1;
+        region.set((int) Math.floor(points.getMinX() - inset), (int) Math.floor(points.getMinY() - inset),
+                (int) Math.ceil(points.getMaxX() + inset), (int) Math.ceil(points.getMaxY() + inset));
+        int count = strokeIndex.query(region.left, region.top, region.right, region.bottom);
+        int replayCount = history.size() - Math.max(0, checkpoints.getNearest(history.size()));
+        if (count >= replayCount)
+        {
+            drawPaths();
+            return;
+        }
+        // start from the baked strokes in the area, which are not indexed
+        baseLayer.restore(tiles, region, renderer);
+        for (int i = 0; i < count; i++)
+        {
+            // draw each overlapping stroke, in the order they were drawn, within the area
+            DrawPath drawPath = history.get(strokeIndex.getResult(i));
+            if (prepare(drawPath))
+                tiles.draw(renderer, region, region);
+        }
+        // the strokes still being drawn are not indexed, but lie above every indexed stroke
+        for (int i = history.size() - activeCount; i < history.size(); i++)
+        {
+            if (prepare(history.get(i)))
+                tiles.draw(renderer, region, region);
+        }
+        generation++;
+        addDirty(region);
+        // release any strokes which had to be paged back in
+        trimHistory();
+        invalidateDirty();
     }
 
     /**
-     * Draws the paths which have been drawn on the canvas.
+     * Draws the paths which have been drawn on the canvas, starting from the nearest checkpoint or from the
+     * base layer. If there are many paths to draw they are replayed across frames, so the canvas appears
+     * straight away. With the render thread they are always replayed across frames, on the render thread.
      */
     private void drawPaths ()
     {
-        // draw the clear background
-        this.canvas.drawColor(backgroundColour, PorterDuff.Mode.CLEAR);
-        // loop through each DrawPath object
-        for (DrawPath drawPath : undo)
+        stopReplay();
+        replayStartTime = System.nanoTime();
+        // restore the nearest checkpoint, or the base layer of baked strokes if there is none
+        int start = checkpoints.restore(history.size(), tiles);
+        if (start < 0)
+        {
+            baseLayer.restore(tiles, renderer);
+            start = 0;
+        }
+        generation++;
+        replayNext = start;
+        replayEnd = history.size();
+        if (renderThread != null && replayNext < replayEnd)
+        {
+            // the render thread replays the first chunk on its next frame, whichever thread this is
+            replaying = true;
+            invalidateAll();
+        } else if (progressiveReplay && replayEnd - replayNext > PROGRESSIVE_REPLAY_THRESHOLD)
         {
-            // set the paint object attributes
-            paint.setColor(drawPath.getColour());
-            paint.setStrokeWidth(drawPath.getWidth());
-            paint.setMaskFilter(null);
-            // draw the path
-            this.canvas.drawPath(drawPath.getPath(), paint);
+            // draw the first chunk now, so the first frame already shows part of the drawing
+            replaying = true;
+            replayChunk();
+        } else
+        {
+            // loop through each DrawPath object drawn after the checkpoint
+            while (replayNext < replayEnd)
+            {
+                // draw the path onto the tiles it covers, paging it back in if it was spilled
+                drawStroke(history.get(replayNext++));
+            }
+            // bake any strokes beyond the undo depth, such as those of a recovered drawing, and release
+            // any strokes which had to be paged back in
+            bakeHistory();
+            trimHistory();
+            replayDuration.record(System.nanoTime() - replayStartTime);
+            invalidateAll();
         }
-        invalidate();
     }
 
     /**
-     * Draws the most recent path when invalidate() is called.
+     * Replays strokes onto the tiles until the frame budget is used up, then either waits for the next
+     * frame or completes the replay.
+     */
+    private void replayChunk ()
+    {
+        long deadline = System.nanoTime() + REPLAY_FRAME_BUDGET;
+        do
+        {
+            drawStroke(history.get(replayNext++));
+        } while (replayNext < replayEnd && System.nanoTime() < deadline);
+        // release the strokes paged in for this chunk so a long replay stays within the memory budget
+        trimHistory();
+        if (replayNext >= replayEnd)
+            completeReplay();
+        else if (renderThread == null)
+            Choreographer.getInstance().postFrameCallback(replayCallback);
+        // the render thread asks for the next frame, on which the next chunk is replayed, by invalidating
+        invalidateAll();
+    }
+
+    /**
+     * Replays every stroke which is left straight away, such as before the drawing is exported.
+     */
+    private void finishReplay ()
+    {
+        if (!replaying)
+            return;
+        if (renderThread == null)
+            Choreographer.getInstance().removeFrameCallback(replayCallback);
+        while (replayNext < replayEnd)
+            drawStroke(history.get(replayNext++));
+        completeReplay();
+        invalidateAll();
+    }
+
+    /**
+     * Ends a replay once every stroke has been replayed.
+     */
+    private void completeReplay ()
+    {
+        replaying = false;
+        // any stroke drawn or redone during the replay went underneath the replayed strokes, so draw
+        // those again on top
+        for (int i = replayEnd; i < history.size(); i++)
+            drawStroke(history.get(i));
+        bakeHistory();
+        trimHistory();
+        // a progressive replay is timed from its start to its last stroke, including the frames between
+        replayDuration.record(System.nanoTime() - replayStartTime);
+    }
+
+    /**
+     * Abandons a replay, as the strokes are about to be replaced or replayed from the start.
+     */
+    private void stopReplay ()
+    {
+        if (!replaying)
+            return;
+        if (renderThread == null)
+            Choreographer.getInstance().removeFrameCallback(replayCallback);
+        replaying = false;
+    }
+
+    /**
+     * Draws the tiles when invalidate() is called. Unless incremental rendering is enabled,
+     * the most recent path is re-drawn in full first.
      * @param canvas - the canvas which objects are drawn on.
      */
     @Override
     protected void onDraw(Canvas canvas)
     {
+        drawFrame(canvas);
+    }
+
+    /**
+     * Draws the changed area of the canvas onto the surface, first replaying the next chunk of
+     * strokes if a replay is in progress. This is called on the render thread at the start of each frame.
+     */
+    synchronized void renderFrame ()
+    {
+        if (replaying)
+            replayChunk();
+        if (dirty.isEmpty())
+            return;
+        // the surface keeps the rest of the previous frame, and grows the dirty rectangle to cover any
+        // area it could not keep
+        Canvas canvas = surfaceView.lockCanvas(dirty, backgroundColour);
+        if (canvas == null)
+            return;
+        try
+        {
+            drawFrame(canvas);
+        } finally
+        {
+            surfaceView.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    /**
+     * Asks the render thread to draw the whole canvas onto a new or resized surface, as it holds nothing
+     * yet. This is called by the CanvasSurfaceView.
+     * @param width - the width of the surface.
+     * @param height - the height of the surface.
+     */
+    synchronized void redrawSurface (int width, int height)
+    {
+        dirty.set(0, 0, width, height);
+        renderThread.requestFrame();
+    }
+
+    /**
+     * Draws the tiles within the clip of a canvas, along with the predicted tail. Unless incremental
+     * rendering is enabled, the most recent path is re-drawn in full first.
+     * @param canvas - the canvas which objects are drawn on.
+     */
+    private void drawFrame (Canvas canvas)
+    {
+        long start = System.nanoTime();
         canvas.save();
-        // if there is more than one previous path
-        if (undo.size() != 0)
-        {
-            // get the most recently drawn path
-            DrawPath lastPath = undo.get(undo.size() - 1);
-            // set the paint object attributes
-            paint.setColor(lastPath.getColour());
-            paint.setStrokeWidth(lastPath.getWidth());
-            paint.setMaskFilter(null);
-            // draw the path
-            this.canvas.drawPath(lastPath.getPath(), paint);
-        }
-        // draw the bitmap to the canvas
-        canvas.drawBitmap(bitmap, 0, 0, paint);
+        // if the paths being drawn have not already been rasterized, draw each of them in full, which
+        // are the most recent paths
+        if (!incrementalRendering)
+        {
+            for (int i = history.size() - activeCount; i < history.size(); i++)
+                drawStroke(history.get(i));
+        }
+        // draw the tiles which need redrawing to the canvas; when the view is drawn in software these
+        // are the tiles under the dirty rectangle, otherwise they are all the allocated tiles, of which
+        // only those that changed have to be uploaded again
+        if (canvas.getClipBounds(clip))
+            tiles.drawTo(canvas, clip);
+        // the predicted tails go over the tiles, so they disappear as soon as they are no longer drawn
+        for (int i = 0; i < liveCount; i++)
+        {
+            PointerStroke stroke = liveStrokes[i];
+            if (stroke.tailVisible && renderer.prepareTail(stroke.drawPath, stroke.predictor.getPredictedX(),
+                    stroke.predictor.getPredictedY(), tailBounds))
+                renderer.drawPrepared(canvas);
+        }
         canvas.restore();
+        dirty.setEmpty();
+        drawDuration.record(System.nanoTime() - start);
+        // the touches are on screen once this frame is shown, which is measured to the end of the draw as
+        // touch times are only given to the millisecond
+        if (pendingTouchTime >= 0)
+        {
+            touchLatency.record((SystemClock.uptimeMillis() - pendingTouchTime) * 1000 * 1000);
+            pendingTouchTime = -1;
+        }
+    }
+
+    /**
+     * Starts recording the frame timings of the display once the view is shown.
+     */
+    @Override
+    protected void onAttachedToWindow()
+    {
+        super.onAttachedToWindow();
+        attached = true;
+        Display display = getDisplay();
+        frameTracker.start(display != null ? display.getRefreshRate() : 0);
+    }
+
+    /**
+     * Stops recording the frame timings once the view is removed, along with the render thread, once it
+     * has handled everything which was sent to it, and closes the history's spill file and stops the
+     * background threads of the checkpoints and the base layer.
+     */
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+        attached = false;
+        frameTracker.stop();
+        if (renderThread != null)
+            renderThread.quitSafely();
+        // the canvas is not attached again, so its strokes are never paged back in, and its background
+        // threads are no longer needed
+        history.close();
+        checkpoints.close();
+        if (baseLayer != null)
+            baseLayer.close();
+    }
+
+    /**
+     * Returns the number of the spill file for a new canvas.
+     * @return int - the number of the spill file.
+     */
+    private static synchronized int nextSpillFileNumber()
+    {
+        return spillFileCount++;
+    }
+
+    /**
+     * Class which holds the state of the stroke being drawn by one pointer. The object is re-used for a
+     * later pointer once the stroke has ended.
+     */
+    private static class PointerStroke
+    {
+        private final StrokeBuilder builder;
+        private final MotionPredictor predictor;
+        private final Rect tailArea;
+        private DrawPath drawPath;
+        private int pointerId;
+        // the position of the stroke in the array of live strokes
+        private int slot;
+        private boolean undone;
+        private boolean tailVisible;
+
+        /**
+         * Constructor which sets up the stroke's predictor.
+         * @param builder - the builder which the stroke is drawn with.
+         */
+        private PointerStroke(StrokeBuilder builder)
+        {
+            this.builder = builder;
+            predictor = new MotionPredictor(MotionPredictor.DEFAULT_HORIZON);
+            tailArea = new Rect();
+        }
+    }
+
+    /**
+     * Interface which handles callbacks when the stroke history changes. With the render thread, the
+     * callbacks are made on whichever thread made the change, while holding the view's lock. A stroke
+     * which was undone while it was drawn is reported once it ends, together with its undo, and no
+     * separate onUndo is made for it.
+     */
+    public interface HistoryChangedListener
+    {
+        void onStrokeCommitted(DrawPath drawPath, boolean undone);
+        void onUndo();
+        void onRedo();
+        void onClear();
     }
-}
\ No newline at end of file
+}
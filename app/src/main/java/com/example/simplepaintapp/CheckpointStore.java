@@ -0,0 +1,460 @@
+package com.example.simplepaintapp;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Class which holds compressed raster snapshots of the canvas tiles, taken after every N strokes, so
+ * that the canvas can be rebuilt from the nearest snapshot rather than by replaying every stroke.
+ * Tiles which have not changed since the previous snapshot share its compressed data.
+ */
+public class CheckpointStore
+{
+    public static final int DEFAULT_INTERVAL = 25;
+    public static final long DEFAULT_MEMORY_CAP = 16 * 1024 * 1024;
+
+    private final TreeMap<Integer, Checkpoint> checkpoints;
+    private final TreeMap<Integer, Checkpoint> pending;
+    private final ExecutorService executor;
+    private final Deflater deflater;
+    private final byte[] chunk;
+
+    private int interval;
+    private long memoryCap;
+    private long memoryUsage;
+    private boolean closed;
+
+    private TileData[] reference;
+    private byte[] restoreBuffer;
+
+    /**
+     * Constructor which sets the interval and the memory cap for the checkpoints.
+     * @param interval - the number of strokes between each checkpoint.
+     * @param memoryCap - the maximum number of compressed bytes to hold.
+     */
+    public CheckpointStore(int interval, long memoryCap)
+    {
+        this.interval = interval;
+        this.memoryCap = memoryCap;
+        checkpoints = new TreeMap<>();
+        pending = new TreeMap<>();
+        // compress on a single background thread so the deflater can be re-used
+        executor = Executors.newSingleThreadExecutor();
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        chunk = new byte[16 * 1024];
+    }
+
+    /**
+     * Sets the number of strokes between each checkpoint.
+     * @param interval - the checkpoint interval.
+     */
+    public synchronized void setInterval(int interval)
+    {
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * Returns the number of strokes between each checkpoint.
+     * @return interval - the checkpoint interval.
+     */
+    public synchronized int getInterval()
+    {
+        return interval;
+    }
+
+    /**
+     * Sets the maximum number of compressed bytes to hold, evicting the oldest checkpoints if needed.
+     * @param memoryCap - the memory cap in bytes.
+     */
+    public synchronized void setMemoryCap(long memoryCap)
+    {
+        this.memoryCap = memoryCap;
+        trim();
+    }
+
+    /**
+     * Returns the maximum number of compressed bytes to hold.
+     * @return memoryCap - the memory cap in bytes.
+     */
+    public synchronized long getMemoryCap()
+    {
+        return memoryCap;
+    }
+
+    /**
+     * Returns the number of compressed bytes currently held.
+     * @return memoryUsage - the memory usage in bytes.
+     */
+    public synchronized long getMemoryUsage()
+    {
+        return memoryUsage;
+    }
+
+    /**
+     * Returns whether a checkpoint is due for a given number of strokes.
+     * @param strokeCount - the number of strokes drawn on the tiles.
+     * @return boolean - whether a checkpoint should be captured.
+     */
+    public synchronized boolean isDue(int strokeCount)
+    {
+        return strokeCount > 0 && strokeCount % interval == 0;
+    }
+
+    /**
+     * Captures the tiles as the checkpoint for a given number of strokes. The pixels of the tiles which
+     * changed since the previous capture or restore are copied immediately and compressed in the background.
+     * @param strokeCount - the number of strokes drawn on the tiles.
+     * @param tiles - the tiles to be captured.
+     */
+    public void capture(int strokeCount, TileStore tiles)
+    {
+        synchronized (this)
+        {
+            if (closed)
+                return;
+        }
+        final Checkpoint checkpoint = new Checkpoint(strokeCount, tiles.getTileCount());
+        final TileData[] changed = new TileData[tiles.getTileCount()];
+        for (int i = 0; i < tiles.getTileCount(); i++)
+        {
+            Bitmap tile = tiles.getTile(i);
+            if (tile == null)
+                continue;
+            if (!tiles.isDirty(i) && reference != null && reference[i] != null)
+            {
+                // the tile is unchanged, so share the compressed data of the previous checkpoint
+                checkpoint.tiles[i] = reference[i];
+            } else
+            {
+                TileData data = new TileData(tile.getWidth(), tile.getHeight());
+                data.pixels = new byte[tile.getByteCount()];
+                tile.copyPixelsToBuffer(ByteBuffer.wrap(data.pixels));
+                checkpoint.tiles[i] = data;
+                changed[i] = data;
+            }
+        }
+        reference = checkpoint.tiles;
+        tiles.markClean();
+
+        synchronized (this)
+        {
+            pending.put(strokeCount, checkpoint);
+        }
+        executor.execute(new Runnable()
+        {
+            /**
+             * Compresses the copied pixels and stores the checkpoint if it is still wanted.
+             */
+            @Override
+            public void run()
+            {
+                for (TileData data : changed)
+                {
+                    if (data != null)
+                        data.compress();
+                }
+                synchronized (CheckpointStore.this)
+                {
+                    // the strokes after this checkpoint may have been changed while compressing, and the
+                    // strokes before it may have been baked
+                    if (pending.get(checkpoint.strokeCount) != checkpoint)
+                        return;
+                    pending.remove(checkpoint.strokeCount);
+                    Checkpoint previous = checkpoints.put(checkpoint.strokeCount, checkpoint);
+                    if (previous != null)
+                        release(previous);
+                    retain(checkpoint);
+                    trim();
+                }
+            }
+        });
+    }
+
+    /**
+     * Restores the nearest checkpoint at or before a given number of strokes into the tiles. Only the
+     * tiles which differ from the checkpoint are decompressed.
+     * @param strokeCount - the number of strokes which should be drawn on the tiles.
+     * @param tiles - the tiles to restore the pixels into.
+     * @return int - the number of strokes drawn in the restored checkpoint, or -1 if none was restored.
+     */
+    public int restore(int strokeCount, TileStore tiles)
+    {
+        Map.Entry<Integer, Checkpoint> entry;
+        synchronized (this)
+        {
+            entry = checkpoints.floorEntry(strokeCount);
+        }
+        // if there is no usable checkpoint, the caller has to replay from the beginning
+        if (entry == null || entry.getValue().tiles.length != tiles.getTileCount())
+            return -1;
+
+        TileData[] restored = entry.getValue().tiles;
+        Inflater inflater = new Inflater();
+        try
+        {
+            for (int i = 0; i < restored.length; i++)
+            {
+                // skip any tile which still holds exactly the checkpoint's pixels
+                if (!tiles.isDirty(i) && reference != null && reference[i] == restored[i])
+                    continue;
+                if (restored[i] == null)
+                    tiles.clearTile(i);
+                else
+                    restored[i].decompress(inflater, tiles.obtainTile(i));
+            }
+        } catch (DataFormatException e)
+        {
+            Log.w("ERROR", "" + e.getMessage());
+            // the tiles are only partly restored, so nothing can be skipped next time
+            reference = null;
+            return -1;
+        } finally
+        {
+            inflater.end();
+        }
+        reference = restored;
+        tiles.markClean();
+        return entry.getKey();
+    }
+
+    /**
+     * Returns the number of strokes in the nearest checkpoint at or before a given number of strokes,
+     * which is where a replay would start from.
+     * @param strokeCount - the number of strokes which should be drawn on the tiles.
+     * @return int - the number of strokes in the checkpoint, or -1 if there is none.
+     */
+    public synchronized int getNearest(int strokeCount)
+    {
+        Integer key = checkpoints.floorKey(strokeCount);
+        return key == null ? -1 : key;
+    }
+
+    /**
+     * Removes any checkpoints which were captured after a given number of strokes, as the strokes
+     * which they contain no longer exist.
+     * @param strokeCount - the number of strokes which are still valid.
+     */
+    public synchronized void invalidateFrom(int strokeCount)
+    {
+        pending.tailMap(strokeCount, false).clear();
+        Map<Integer, Checkpoint> invalid = checkpoints.tailMap(strokeCount, false);
+        for (Checkpoint checkpoint : invalid.values())
+            release(checkpoint);
+        invalid.clear();
+    }
+
+    /**
+     * Counts the strokes of every checkpoint from a later stroke, as the strokes before it have been
+     * baked into a base layer. Checkpoints captured before that stroke can no longer be replayed from,
+     * so they are removed.
+     * @param strokeCount - the number of strokes which were baked.
+     */
+    public synchronized void rebase(int strokeCount)
+    {
+        Map<Integer, Checkpoint> baked = checkpoints.headMap(strokeCount, false);
+        for (Checkpoint checkpoint : baked.values())
+            release(checkpoint);
+        baked.clear();
+        pending.headMap(strokeCount, false).clear();
+        rebase(checkpoints, strokeCount);
+        rebase(pending, strokeCount);
+    }
+
+    /**
+     * Takes a number of strokes off the key of every checkpoint in a map.
+     * @param map - the checkpoints, none of which is before the number of strokes.
+     * @param strokeCount - the number of strokes which were baked.
+     */
+    private static void rebase(TreeMap<Integer, Checkpoint> map, int strokeCount)
+    {
+        if (map.isEmpty())
+            return;
+        Checkpoint[] rebased = map.values().toArray(new Checkpoint[0]);
+        map.clear();
+        for (Checkpoint checkpoint : rebased)
+        {
+            checkpoint.strokeCount -= strokeCount;
+            map.put(checkpoint.strokeCount, checkpoint);
+        }
+    }
+
+    /**
+     * Removes all checkpoints.
+     */
+    public synchronized void clear()
+    {
+        pending.clear();
+        checkpoints.clear();
+        memoryUsage = 0;
+        reference = null;
+        restoreBuffer = null;
+    }
+
+    /**
+     * Removes all checkpoints and stops the background thread once it has compressed any checkpoint
+     * already captured, then frees the compressor. Nothing more is captured once closed.
+     */
+    public void close()
+    {
+        synchronized (this)
+        {
+            closed = true;
+        }
+        clear();
+        executor.execute(new Runnable()
+        {
+            /**
+             * Frees the compressor after the last compression.
+             */
+            @Override
+            public void run()
+            {
+                deflater.end();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Evicts the oldest checkpoints until the memory usage is within the memory cap.
+     */
+    private void trim()
+    {
+        while (memoryUsage > memoryCap && !checkpoints.isEmpty())
+            release(checkpoints.pollFirstEntry().getValue());
+    }
+
+    /**
+     * Counts the tile data held by a stored checkpoint towards the memory usage, once per tile data.
+     * @param checkpoint - the checkpoint being stored.
+     */
+    private void retain(Checkpoint checkpoint)
+    {
+        for (TileData data : checkpoint.tiles)
+        {
+            if (data != null && data.references++ == 0)
+                memoryUsage += data.compressed.length;
+        }
+    }
+
+    /**
+     * Stops counting the tile data held by a removed checkpoint, unless another checkpoint shares it.
+     * @param checkpoint - the checkpoint being removed.
+     */
+    private void release(Checkpoint checkpoint)
+    {
+        for (TileData data : checkpoint.tiles)
+        {
+            if (data != null && --data.references == 0)
+                memoryUsage -= data.compressed.length;
+        }
+    }
+
+    /**
+     * Returns a buffer of a given size to decompress pixels into, re-using the previous one if possible.
+     * @param size - the size of the buffer in bytes.
+     * @return byte[] - the buffer.
+     */
+    private byte[] obtainRestoreBuffer(int size)
+    {
+        if (restoreBuffer == null || restoreBuffer.length < size)
+            restoreBuffer = new byte[size];
+        return restoreBuffer;
+    }
+
+    /**
+     * Class which holds the tile data of a single checkpoint.
+     */
+    private static class Checkpoint
+    {
+        private final TileData[] tiles;
+        private int strokeCount;
+
+        /**
+         * Constructor for the Checkpoint class.
+         * @param strokeCount - the number of strokes drawn on the tiles.
+         * @param tileCount - the number of tiles in the grid.
+         */
+        private Checkpoint(int strokeCount, int tileCount)
+        {
+            this.strokeCount = strokeCount;
+            tiles = new TileData[tileCount];
+        }
+    }
+
+    /**
+     * Class which holds the pixels of a single tile, first copied and then compressed.
+     */
+    private class TileData
+    {
+        private final int width;
+        private final int height;
+        private byte[] pixels;
+        private byte[] compressed;
+        private int references;
+
+        /**
+         * Constructor for the TileData class.
+         * @param width - the width of the tile.
+         * @param height - the height of the tile.
+         */
+        private TileData(int width, int height)
+        {
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Compresses the copied pixels and releases them. Only called from the background thread.
+         */
+        private void compress()
+        {
+            deflater.reset();
+            deflater.setInput(pixels);
+            deflater.finish();
+            // blank areas of a tile compress very well, so start with a small output buffer
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(pixels.length / 64);
+            while (!deflater.finished())
+            {
+                int length = deflater.deflate(chunk);
+                outputStream.write(chunk, 0, length);
+            }
+            byte[] data = outputStream.toByteArray();
+            synchronized (CheckpointStore.this)
+            {
+                compressed = data;
+                pixels = null;
+            }
+        }
+
+        /**
+         * Decompresses the pixels into a tile bitmap.
+         * @param inflater - the inflater to decompress with.
+         * @param tile - the bitmap of the tile.
+         * @throws DataFormatException - if the compressed data is corrupt.
+         */
+        private void decompress(Inflater inflater, Bitmap tile) throws DataFormatException
+        {
+            int size = width * height * 4;
+            byte[] buffer = obtainRestoreBuffer(size);
+            inflater.reset();
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < size && !inflater.finished())
+                length += inflater.inflate(buffer, length, size - length);
+            if (length != size)
+                throw new DataFormatException("Checkpoint tile is truncated");
+            tile.copyPixelsFromBuffer(ByteBuffer.wrap(buffer, 0, size));
+        }
+    }
+}
@@ -1,35 +1,130 @@
 package com.example.simplepaintapp;
 
-import android.graphics.Path;
+import java.io.IOException;
 
 /**
- * Class which holds the path, colour, and stroke width for a drawn path which is displayed on the canvas.
+ * Class which holds the points, colour, and stroke width for a drawn path which is displayed on the canvas.
+ * The points are held as primitives, and are only turned into a Path object by a StrokeRenderer when drawn.
+ * Once the points have been stored in a StrokeSource they can be paged out, and are paged back in
+ * the next time they are needed. A FootprintListener can be attached to be told whenever this happens,
+ * so the memory held by many strokes can be totalled without reading each one.
  */
 public class DrawPath
 {
-    private final int colour;
-    private final int width;
+    private int colour;
+    private int width;
 
-    private final Path path;
+    private StrokePoints points;
+    private StrokeSource source;
+    private long handle;
+
+    private long footprint;
+    private FootprintListener footprintListener;
+
+    private boolean bounded;
+    private float minX, minY, maxX, maxY;
 
     /**
      * Constructor for the DrawPath class.
      * @param colour - the colour of the path to be drawn.
      * @param width - the width of the path to be drawn.
-     * @param path - the path object to be drawn.
+     * @param points - the points which the path passes through.
+     */
+    public DrawPath(int colour, int width, StrokePoints points)
+    {
+        this.colour = colour;
+        this.width = width;
+        this.points = points;
+        footprint = points == null ? 0 : points.getMemoryFootprint();
+    }
+
+    /**
+     * Constructor for a DrawPath whose points are already stored, and are only paged in when needed.
+     * @param colour - the colour of the path to be drawn.
+     * @param width - the width of the path to be drawn.
+     * @param source - the source the points can be paged in from.
+     * @param handle - the handle of the points within the source.
+     */
+    public DrawPath(int colour, int width, StrokeSource source, long handle)
+    {
+        this.colour = colour;
+        this.width = width;
+        this.source = source;
+        this.handle = handle;
+    }
+
+    /**
+     * Constructor for a DrawPath whose points are already stored, and whose bounding box is already known
+     * so that the points don't have to be paged in to find it.
+     * @param colour - the colour of the path to be drawn.
+     * @param width - the width of the path to be drawn.
+     * @param source - the source the points can be paged in from.
+     * @param handle - the handle of the points within the source.
+     * @param minX - the smallest x-ordinate of the points.
+     * @param minY - the smallest y-ordinate of the points.
+     * @param maxX - the largest x-ordinate of the points.
+     * @param maxY - the largest y-ordinate of the points.
+     */
+    public DrawPath(int colour, int width, StrokeSource source, long handle,
+                    float minX, float minY, float maxX, float maxY)
+    {
+        this(colour, width, source, handle);
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        bounded = true;
+    }
+
+    /**
+     * Re-uses a DrawPath which has never been shown for a new stroke, as a StrokePool does.
+     * @param colour - the colour of the path to be drawn.
+     * @param width - the width of the path to be drawn.
+     * @param points - the points which the path passes through.
      */
-    public DrawPath(int colour, int width, Path path)
+    synchronized void reset(int colour, int width, StrokePoints points)
     {
         this.colour = colour;
         this.width = width;
-        this.path = path;
+        this.points = points;
+        footprint = points.getMemoryFootprint();
+        source = null;
+        handle = 0;
+        bounded = false;
+    }
+
+    /**
+     * Replaces the points with another copy of them, such as a compact copy once the stroke is finished.
+     * @param points - the points which the path passes through.
+     */
+    synchronized void setPoints(StrokePoints points)
+    {
+        long previous = footprint;
+        this.points = points;
+        footprint = points.getMemoryFootprint();
+        bounded = false;
+        if (footprintListener != null)
+            footprintListener.onResized(this, footprint - previous);
+    }
+
+    /**
+     * Attaches the listener which is told whenever the points are paged in, paged out or replaced.
+     * @param footprintListener - the listener, or null to detach the current one.
+     * @return long - the number of bytes the listener should take the points to hold until it is told
+     * otherwise, which is 0 if they are paged out.
+     */
+    synchronized long attach(FootprintListener footprintListener)
+    {
+        this.footprintListener = footprintListener;
+        return footprint;
     }
 
     /**
      * Returns the colour of the path to be drawn.
      * @return int - the colour of the path.
      */
-    public int getColour() {
+    public int getColour()
+    {
         return colour;
     }
 
@@ -37,15 +132,178 @@ public class DrawPath
      * Returns the width of the path to be drawn.
      * @return int - the width of the path.
      */
-    public int getWidth() {
+    public int getWidth()
+    {
         return width;
     }
 
     /**
-     * Returns the path object to be drawn.
-     * @return Path - the path object.
+     * Returns the points which the path passes through, paging them back in if they were paged out.
+     * @return StrokePoints - the points of the path.
+     * @throws IOException - if the points were paged out and could not be paged back in.
+     */
+    public synchronized StrokePoints getPoints() throws IOException
+    {
+        if (points == null)
+        {
+            points = source.load(handle);
+            footprint = points.getMemoryFootprint();
+            if (footprintListener != null)
+                footprintListener.onPagedIn(this, footprint);
+        }
+        return points;
+    }
+
+    /**
+     * Returns the points which the path passes through without paging them in, such as the points of a
+     * stroke which is still being drawn, which are never paged out.
+     * @return StrokePoints - the points of the path, or null if they are paged out.
      */
-    public Path getPath() {
-        return path;
+    public synchronized StrokePoints getResidentPoints()
+    {
+        return points;
+    }
+
+    /**
+     * Returns the left edge of the bounding box of the points. The bounding box is kept once it has been
+     * read, so it should only be read once no more points will be added.
+     * @return float - the smallest x-ordinate.
+     */
+    public synchronized float getMinX()
+    {
+        bound();
+        return minX;
+    }
+
+    /**
+     * Returns the top edge of the bounding box of the points.
+     * @return float - the smallest y-ordinate.
+     */
+    public synchronized float getMinY()
+    {
+        bound();
+        return minY;
+    }
+
+    /**
+     * Returns the right edge of the bounding box of the points.
+     * @return float - the largest x-ordinate.
+     */
+    public synchronized float getMaxX()
+    {
+        bound();
+        return maxX;
+    }
+
+    /**
+     * Returns the bottom edge of the bounding box of the points.
+     * @return float - the largest y-ordinate.
+     */
+    public synchronized float getMaxY()
+    {
+        bound();
+        return maxY;
+    }
+
+    /**
+     * Reads the bounding box from the points the first time it is needed. If the points can't be paged
+     * in the stroke can't be drawn either, so it is given an empty bounding box at the origin.
+     */
+    private void bound()
+    {
+        if (bounded)
+            return;
+        StrokePoints points;
+        try
+        {
+            points = getPoints();
+        } catch (IOException e)
+        {
+            bounded = true;
+            return;
+        }
+        minX = points.getMinX();
+        minY = points.getMinY();
+        maxX = points.getMaxX();
+        maxY = points.getMaxY();
+        bounded = true;
+    }
+
+    /**
+     * Returns whether the points are currently held in memory.
+     * @return boolean - whether the points are resident.
+     */
+    public synchronized boolean isResident()
+    {
+        return points != null;
+    }
+
+    /**
+     * Returns whether the points have been stored somewhere they can be paged back in from.
+     * @return boolean - whether the points have been stored.
+     */
+    public synchronized boolean isStored()
+    {
+        return source != null;
+    }
+
+    /**
+     * Returns the number of bytes held in memory by the points.
+     * @return long - the memory footprint in bytes.
+     */
+    public synchronized long getMemoryFootprint()
+    {
+        return points == null ? 0 : points.getMemoryFootprint();
+    }
+
+    /**
+     * Records where the points have been stored and releases them from memory.
+     * @param source - the source the points can be paged back in from.
+     * @param handle - the handle of the points within the source.
+     */
+    public synchronized void pageOut(StrokeSource source, long handle)
+    {
+        this.source = source;
+        this.handle = handle;
+        release();
+    }
+
+    /**
+     * Releases the points from memory, if they have already been stored.
+     * @return boolean - whether the points were released.
+     */
+    public synchronized boolean pageOut()
+    {
+        if (source == null)
+            return false;
+        release();
+        return true;
+    }
+
+    /**
+     * Drops the points from memory, telling the listener if they were held. Only called while holding
+     * the lock.
+     */
+    private void release()
+    {
+        if (points == null)
+            return;
+        long released = footprint;
+        points = null;
+        footprint = 0;
+        if (footprintListener != null)
+            footprintListener.onPagedOut(this, released);
+    }
+
+    /**
+     * Interface which handles callbacks when the memory held by the points changes. The callbacks are
+     * made on whichever thread changed the points, while holding the lock of the DrawPath, so they must
+     * not call back into it.
+     */
+    interface FootprintListener
+    {
+        void onPagedIn(DrawPath drawPath, long footprint);
+        void onPagedOut(DrawPath drawPath, long footprint);
+        void onResized(DrawPath drawPath, long change);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,348 @@
+package com.example.simplepaintapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Class which reads and writes the native document format of a drawing, which keeps every stroke so
+ * that editing can carry on after the drawing is reopened. The file starts with a header, followed by
+ * the point records of the strokes in the order they were drawn, and ends with an index holding the
+ * offset, colour, width, and bounding box of each stroke. Version 2 adds the number of strokes which
+ * were baked, and so can no longer be undone, to the header.
+ *
+ * An opened document is memory-mapped, and only the header is read up front. The points of a stroke
+ * are only read when its DrawPath is paged in, so even very large documents open immediately.
+ */
+public class DrawingDocument implements StrokeSource
+{
+    public static final String FILE_EXTENSION = ".spd";
+
+    private static final int MAGIC = 0x53504e54;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 4 + 4 + 8;
+    private static final int VERSION_1_HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 4 + 8;
+    private static final int INDEX_ENTRY_BYTES = 8 + 4 + 4 + 4 * 4;
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    private final int width;
+    private final int height;
+    private final int strokeCount;
+    private final int undoCount;
+    private final int bakedCount;
+    private final int indexOffset;
+
+    /**
+     * Constructor which reads the header of a mapped document.
+     * @param buffer - the mapped contents of the file.
+     * @throws IOException - if the file is not a valid document.
+     */
+    private DrawingDocument(ByteBuffer buffer) throws IOException
+    {
+        this.buffer = buffer;
+        if (buffer.capacity() < VERSION_1_HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not a drawing document");
+        int version = buffer.getInt(4);
+        if (version != 1 && version != VERSION)
+            throw new IOException("Unsupported drawing document version " + version);
+        int headerBytes = version == 1 ? VERSION_1_HEADER_BYTES : HEADER_BYTES;
+        if (buffer.capacity() < headerBytes)
+            throw new IOException("Drawing document is corrupt");
+        width = buffer.getInt(8);
+        height = buffer.getInt(12);
+        strokeCount = buffer.getInt(16);
+        undoCount = buffer.getInt(20);
+        // nothing was baked before version 2
+        bakedCount = version == 1 ? 0 : buffer.getInt(24);
+        long offset = buffer.getLong(headerBytes - 8);
+        // make sure the index lies within the file before any stroke is read from it
+        if (strokeCount < 0 || undoCount < 0 || undoCount > strokeCount || bakedCount < 0
+                || bakedCount > undoCount || offset < headerBytes
+                || offset + (long) strokeCount * INDEX_ENTRY_BYTES > buffer.capacity())
+            throw new IOException("Drawing document is corrupt");
+        indexOffset = (int) offset;
+    }
+
+    /**
+     * Opens a document by mapping it into memory.
+     * @param file - the document file.
+     * @return DrawingDocument - the opened document.
+     * @throws IOException - if the file could not be read or is not a valid document.
+     */
+    public static DrawingDocument open(File file) throws IOException
+    {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r"))
+        {
+            // the mapping stays valid after the channel is closed
+            FileChannel channel = randomAccessFile.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new DrawingDocument(mapped);
+        }
+    }
+
+    /**
+     * Writes a document in which none of the strokes have been baked.
+     * @param file - the document file.
+     * @param width - the width of the canvas.
+     * @param height - the height of the canvas.
+     * @param strokes - every stroke in the order it was drawn.
+     * @param undoCount - the number of strokes, from the first, which are shown on the canvas; the
+     *                    rest can be redone.
+     * @throws IOException - if the document could not be written.
+     */
+    public static void write(File file, int width, int height, List<DrawPath> strokes, int undoCount)
+            throws IOException
+    {
+        write(file, width, height, strokes, 0, undoCount);
+    }
+
+    /**
+     * Writes a document to a temporary file and then renames it over the given file, so a document is
+     * never left half-written. Any stroke which is paged out is paged in to be written, and paged out again
+     * once it has been.
+     * @param file - the document file.
+     * @param width - the width of the canvas.
+     * @param height - the height of the canvas.
+     * @param strokes - every stroke in the order it was drawn.
+     * @param bakedCount - the number of strokes, from the first, which have been baked and so can no
+     *                     longer be undone.
+     * @param undoCount - the number of strokes, from the first, which are shown on the canvas; the
+     *                    rest can be redone.
+     * @throws IOException - if the document could not be written.
+     */
+    public static void write(File file, int width, int height, List<DrawPath> strokes, int bakedCount,
+                             int undoCount) throws IOException
+    {
+        File tempFile = new File(file.getPath() + ".tmp");
+        ByteBuffer index = ByteBuffer.allocate(strokes.size() * INDEX_ENTRY_BYTES);
+        ByteBuffer records = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw"))
+        {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+            long position = HEADER_BYTES;
+            long written = HEADER_BYTES;
+            for (DrawPath drawPath : strokes)
+            {
+                boolean resident = drawPath.isResident();
+                StrokePoints points = drawPath.getPoints();
+                // the index entry holds everything needed about the stroke without reading its points
+                index.putLong(position);
+                index.putInt(drawPath.getColour());
+                index.putInt(drawPath.getWidth());
+                index.putFloat(points.getMinX());
+                index.putFloat(points.getMinY());
+                index.putFloat(points.getMaxX());
+                index.putFloat(points.getMaxY());
+
+                // gather the records so most strokes don't need a write of their own
+                int recordBytes = StrokeSpillFile.getRecordBytes(points);
+                if (records.remaining() < recordBytes)
+                {
+                    records.flip();
+                    written += writeFully(channel, records, written);
+                    records.clear();
+                    if (records.capacity() < recordBytes)
+                        records = ByteBuffer.allocate(recordBytes);
+                }
+                StrokeSpillFile.putRecord(records, points);
+                position += recordBytes;
+                // the record has been copied, so release the points rather than keep every stroke in memory
+                if (!resident)
+                    drawPath.pageOut();
+            }
+            records.flip();
+            writeFully(channel, records, written);
+            index.flip();
+            long offset = position;
+            if (offset + index.remaining() > Integer.MAX_VALUE)
+                throw new IOException("Drawing document is too large");
+            writeFully(channel, index, offset);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                    .putInt(strokes.size()).putInt(undoCount).putInt(bakedCount).putLong(offset);
+            header.flip();
+            writeFully(channel, header, 0);
+            channel.force(false);
+        } catch (IOException e)
+        {
+            tempFile.delete();
+            throw e;
+        }
+        if (!tempFile.renameTo(file))
+        {
+            tempFile.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Returns the width of the canvas the document was drawn on.
+     * @return width - the width.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the canvas the document was drawn on.
+     * @return height - the height.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the number of strokes in the document, including those which can be redone.
+     * @return strokeCount - the number of strokes.
+     */
+    public int getStrokeCount()
+    {
+        return strokeCount;
+    }
+
+    /**
+     * Returns the number of strokes, from the first, which are shown on the canvas.
+     * @return undoCount - the number of strokes which can be undone.
+     */
+    public int getUndoCount()
+    {
+        return undoCount;
+    }
+
+    /**
+     * Returns the number of strokes, from the first, which were baked and so can no longer be undone.
+     * @return bakedCount - the number of baked strokes.
+     */
+    public int getBakedCount()
+    {
+        return bakedCount;
+    }
+
+    /**
+     * Returns the colour of a stroke.
+     * @param index - the index of the stroke, in the order it was drawn.
+     * @return int - the colour.
+     */
+    public int getStrokeColour(int index)
+    {
+        return buffer.getInt(entry(index) + 8);
+    }
+
+    /**
+     * Returns the width of a stroke.
+     * @param index - the index of the stroke, in the order it was drawn.
+     * @return int - the stroke width.
+     */
+    public int getStrokeWidth(int index)
+    {
+        return buffer.getInt(entry(index) + 12);
+    }
+
+    /**
+     * Returns the left edge of the bounding box of a stroke's points.
+     * @param index - the index of the stroke, in the order it was drawn.
+     * @return float - the smallest x-ordinate.
+     */
+    public float getMinX(int index)
+    {
+        return buffer.getFloat(entry(index) + 16);
+    }
+
+    /**
+     * Returns the top edge of the bounding box of a stroke's points.
+     * @param index - the index of the stroke, in the order it was drawn.
+     * @return float - the smallest y-ordinate.
+     */
+    public float getMinY(int index)
+    {
+        return buffer.getFloat(entry(index) + 20);
+    }
+
+    /**
+     * Returns the right edge of the bounding box of a stroke's points.
+     * @param index - the index of the stroke, in the order it was drawn.
+     * @return float - the largest x-ordinate.
+     */
+    public float getMaxX(int index)
+    {
+        return buffer.getFloat(entry(index) + 24);
+    }
+
+    /**
+     * Returns the bottom edge of the bounding box of a stroke's points.
+     * @param index - the index of the stroke, in the order it was drawn.
+     * @return float - the largest y-ordinate.
+     */
+    public float getMaxY(int index)
+    {
+        return buffer.getFloat(entry(index) + 28);
+    }
+
+    /**
+     * Returns a stroke whose points are left in the document until they are needed, but whose bounding
+     * box is read from the index straight away.
+     * @param index - the index of the stroke, in the order it was drawn.
+     * @return DrawPath - the stroke.
+     */
+    public DrawPath getStroke(int index)
+    {
+        return new DrawPath(getStrokeColour(index), getStrokeWidth(index), this, index,
+                getMinX(index), getMinY(index), getMaxX(index), getMaxY(index));
+    }
+
+    /**
+     * Reads the points of a stroke from the mapped file.
+     * @param handle - the index of the stroke, in the order it was drawn.
+     * @return StrokePoints - the points of the stroke.
+     * @throws IOException - if the stroke's record is corrupt.
+     */
+    @Override
+    public StrokePoints load(long handle) throws IOException
+    {
+        if (handle < 0 || handle >= strokeCount)
+            throw new IOException("No stroke " + handle + " in drawing document");
+        long offset = buffer.getLong(entry((int) handle));
+        if (offset < HEADER_BYTES || offset >= indexOffset)
+            throw new IOException("Drawing document is corrupt");
+        // each read uses its own view of the buffer, so strokes can be paged in on any thread
+        ByteBuffer record = buffer.duplicate();
+        record.limit(indexOffset);
+        record.position((int) offset);
+        return StrokeSpillFile.getRecord(record);
+    }
+
+    /**
+     * Returns the position of a stroke's entry in the index.
+     * @param index - the index of the stroke.
+     * @return int - the position of the entry.
+     */
+    private int entry(int index)
+    {
+        return indexOffset + index * INDEX_ENTRY_BYTES;
+    }
+
+    /**
+     * Writes a buffer to a channel at a given position until it is empty.
+     * @param channel - the channel to write to.
+     * @param buffer - the buffer to write.
+     * @param position - the position in the file to start writing at.
+     * @return int - the number of bytes written.
+     * @throws IOException - if the buffer could not be written.
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        int written = 0;
+        while (buffer.hasRemaining())
+            written += channel.write(buffer, position + written);
+        return written;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.simplepaintapp;
+
+import android.view.Choreographer;
+
+/**
+ * Class which follows the frames of the display through the Choreographer, recording the time between
+ * each frame and counting the frames which were dropped, as the number of refresh intervals which
+ * passed without a frame being started.
+ */
+public class FrameTracker implements Choreographer.FrameCallback
+{
+    private final LatencyHistogram frameIntervals;
+    private final MetricsRegistry.Counter frames;
+    private final MetricsRegistry.Counter droppedFrames;
+
+    private long refreshInterval;
+    private long lastFrameTime;
+    private boolean running;
+
+    /**
+     * Constructor which sets up the metrics the frames are recorded in.
+     * @param metrics - the registry to record the frames in.
+     */
+    public FrameTracker(MetricsRegistry metrics)
+    {
+        frameIntervals = metrics.histogram("frame.interval");
+        frames = metrics.counter("frame.count");
+        droppedFrames = metrics.counter("frame.dropped");
+        refreshInterval = 1000 * 1000 * 1000 / 60;
+    }
+
+    /**
+     * Starts following the frames of the display.
+     * @param refreshRate - the refresh rate of the display, in frames per second.
+     */
+    public void start(float refreshRate)
+    {
+        if (refreshRate > 0)
+            refreshInterval = (long) (1e9 / refreshRate);
+        if (running)
+            return;
+        running = true;
+        lastFrameTime = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stops following the frames of the display.
+     */
+    public void stop()
+    {
+        if (!running)
+            return;
+        running = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Records the time since the previous frame, and then waits for the next frame.
+     * @param frameTimeNanos - the time the frame started rendering.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos)
+    {
+        if (lastFrameTime != 0)
+        {
+            long interval = frameTimeNanos - lastFrameTime;
+            frameIntervals.record(interval);
+            frames.increment();
+            // allow half an interval of jitter before a frame counts as dropped
+            long dropped = (interval + refreshInterval / 2) / refreshInterval - 1;
+            if (dropped > 0)
+                droppedFrames.add(dropped);
+        }
+        lastFrameTime = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
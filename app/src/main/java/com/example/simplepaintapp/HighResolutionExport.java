@@ -0,0 +1,289 @@
+package com.example.simplepaintapp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Class which re-renders a list of strokes at a larger scale than the canvas and streams the result to
+ * a PNG. The output is rendered one band of tiles at a time, with the tiles of each band rendered in
+ * parallel on a fork-join pool and then passed to the encoder before the next band is started, so the
+ * memory used depends on the width of the output and the tile size rather than the size of the output.
+ */
+public class HighResolutionExport
+{
+    public static final int TILE_SIZE = 512;
+
+    private final List<DrawPath> strokes;
+    private final int width;
+    private final int height;
+    private final float scale;
+    private final ThreadLocal<TileRenderer> tileRenderers;
+
+    /**
+     * Constructor which sets the strokes to render and the scale to render them at.
+     * @param strokes - the strokes, in the order they were drawn, which must not change while exporting.
+     * @param width - the width of the canvas the strokes were drawn on.
+     * @param height - the height of the canvas the strokes were drawn on.
+     * @param scale - the scale of the output relative to the canvas, such as 2 or 4, or the target DPI
+     *                divided by the DPI of the display.
+     */
+    public HighResolutionExport(List<DrawPath> strokes, int width, int height, float scale)
+    {
+        this.strokes = strokes;
+        this.width = width;
+        this.height = height;
+        this.scale = scale;
+        // each worker thread draws with its own bitmap, canvas, and paint
+        tileRenderers = new ThreadLocal<TileRenderer>()
+        {
+            /**
+             * Creates the tile renderer for a worker thread.
+             * @return TileRenderer - the tile renderer.
+             */
+            @Override
+            protected TileRenderer initialValue()
+            {
+                return new TileRenderer();
+            }
+        };
+    }
+
+    /**
+     * Returns the width of the output.
+     * @return int - the width in pixels.
+     */
+    public int getOutputWidth()
+    {
+        return Math.max(1, Math.round(width * scale));
+    }
+
+    /**
+     * Returns the height of the output.
+     * @return int - the height in pixels.
+     */
+    public int getOutputHeight()
+    {
+        return Math.max(1, Math.round(height * scale));
+    }
+
+    /**
+     * Renders the strokes and writes them to a stream as a PNG.
+     * @param pool - the pool to render the tiles on.
+     * @param outputStream - the stream to write the PNG to.
+     * @throws IOException - if the PNG could not be written, or a tile could not be rendered.
+     */
+    public void write(ForkJoinPool pool, OutputStream outputStream) throws IOException
+    {
+        int outputWidth = getOutputWidth();
+        int outputHeight = getOutputHeight();
+        int columns = (outputWidth + TILE_SIZE - 1) / TILE_SIZE;
+        int[] band = new int[outputWidth * TILE_SIZE];
+        ArrayList<DrawPath> bandStrokes = new ArrayList<>();
+        ArrayList<DrawPath> pagedIn = new ArrayList<>();
+        ArrayList<Callable<Void>> tasks = new ArrayList<>(columns);
+        PngStreamWriter writer = new PngStreamWriter(outputStream, outputWidth, outputHeight);
+
+        try
+        {
+            for (int top = 0; top < outputHeight; top += TILE_SIZE)
+            {
+                int bandHeight = Math.min(TILE_SIZE, outputHeight - top);
+                // narrow the strokes down to those crossing the band, so each tile only looks at those
+                collectStrokes(strokes, 0, top, outputWidth, top + bandHeight, bandStrokes);
+                for (DrawPath drawPath : bandStrokes)
+                {
+                    // a stroke starting above the band crossed the band before, and was noted there
+                    if ((top == 0 || getTop(drawPath) >= top) && !drawPath.isResident())
+                        pagedIn.add(drawPath);
+                }
+                tasks.clear();
+                for (int left = 0; left < outputWidth; left += TILE_SIZE)
+                    tasks.add(new TileTask(bandStrokes, band, outputWidth, left, top,
+                            Math.min(TILE_SIZE, outputWidth - left), bandHeight));
+                for (Future<Void> future : pool.invokeAll(tasks))
+                {
+                    try
+                    {
+                        future.get();
+                    } catch (InterruptedException | ExecutionException e)
+                    {
+                        throw new IOException("Could not render tile", e);
+                    }
+                }
+                writer.writeRows(band, 0, outputWidth, bandHeight);
+                pageOut(pagedIn, top + bandHeight);
+            }
+            writer.finish();
+        } finally
+        {
+            writer.close();
+            pageOut(pagedIn, Float.POSITIVE_INFINITY);
+        }
+    }
+
+    /**
+     * Releases the points of the strokes which were paged in to be rendered once no band below a given
+     * edge still needs them, so an export never holds more than the strokes crossing a band.
+     * @param pagedIn - the strokes which were paged in, from which those released are removed.
+     * @param bottom - the bottom edge of the last band rendered.
+     */
+    private void pageOut(List<DrawPath> pagedIn, float bottom)
+    {
+        int kept = 0;
+        for (DrawPath drawPath : pagedIn)
+        {
+            if (getBottom(drawPath) > bottom)
+                pagedIn.set(kept++, drawPath);
+            else
+                drawPath.pageOut();
+        }
+        pagedIn.subList(kept, pagedIn.size()).clear();
+    }
+
+    /**
+     * Returns the top edge of a stroke's bounding box, inflated by half its width, in the output.
+     * @param drawPath - the stroke.
+     * @return float - the top edge.
+     */
+    private float getTop(DrawPath drawPath)
+    {
+        return (drawPath.getMinY() - drawPath.getWidth() / 2f - 1) * scale;
+    }
+
+    /**
+     * Returns the bottom edge of a stroke's bounding box, inflated by half its width, in the output.
+     * @param drawPath - the stroke.
+     * @return float - the bottom edge.
+     */
+    private float getBottom(DrawPath drawPath)
+    {
+        return (drawPath.getMaxY() + drawPath.getWidth() / 2f + 1) * scale;
+    }
+
+    /**
+     * Collects the strokes whose bounding boxes, inflated by half their width and scaled to the output,
+     * cross a rectangle of the output.
+     * @param from - the strokes to search.
+     * @param left - the left edge of the rectangle.
+     * @param top - the top edge of the rectangle.
+     * @param right - the right edge of the rectangle.
+     * @param bottom - the bottom edge of the rectangle.
+     * @param to - the list to collect the strokes into, which is emptied first.
+     */
+    private void collectStrokes(List<DrawPath> from, float left, float top, float right, float bottom,
+                                List<DrawPath> to)
+    {
+        to.clear();
+        for (DrawPath drawPath : from)
+        {
+            float inset = drawPath.getWidth() / 2f + 1;
+            if ((drawPath.getMinX() - inset) * scale < right && (drawPath.getMaxX() + inset) * scale > left
+                    && (drawPath.getMinY() - inset) * scale < bottom && (drawPath.getMaxY() + inset) * scale > top)
+                to.add(drawPath);
+        }
+    }
+
+    /**
+     * Class which renders a single tile of a band and copies its pixels into the band.
+     */
+    private class TileTask implements Callable<Void>
+    {
+        private final List<DrawPath> bandStrokes;
+        private final int[] band;
+        private final int stride;
+        private final int left;
+        private final int top;
+        private final int tileWidth;
+        private final int tileHeight;
+
+        /**
+         * Constructor for the TileTask class.
+         * @param bandStrokes - the strokes crossing the band.
+         * @param band - the pixels of the band, which each tile copies its own area of.
+         * @param stride - the width of the band.
+         * @param left - the left edge of the tile in the output.
+         * @param top - the top edge of the tile in the output.
+         * @param tileWidth - the width of the tile.
+         * @param tileHeight - the height of the tile.
+         */
+        private TileTask(List<DrawPath> bandStrokes, int[] band, int stride, int left, int top,
+                         int tileWidth, int tileHeight)
+        {
+            this.bandStrokes = bandStrokes;
+            this.band = band;
+            this.stride = stride;
+            this.left = left;
+            this.top = top;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+        }
+
+        /**
+         * Renders the tile.
+         * @return Void - nothing.
+         * @throws IOException - if a stroke's points could not be paged in.
+         */
+        @Override
+        public Void call() throws IOException
+        {
+            tileRenderers.get().render(this);
+            return null;
+        }
+    }
+
+    /**
+     * Class which holds the bitmap, canvas, and renderer a worker thread draws its tiles with.
+     */
+    private class TileRenderer
+    {
+        private final Bitmap bitmap;
+        private final Canvas canvas;
+        private final StrokeRenderer renderer;
+        private final ArrayList<DrawPath> tileStrokes;
+
+        /**
+         * Constructor for the TileRenderer class.
+         */
+        private TileRenderer()
+        {
+            bitmap = Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+            renderer = new StrokeRenderer();
+            tileStrokes = new ArrayList<>();
+        }
+
+        /**
+         * Renders the strokes crossing a tile and copies the tile's pixels into the band.
+         * @param task - the tile to render.
+         * @throws IOException - if a stroke's points could not be paged in.
+         */
+        private void render(TileTask task) throws IOException
+        {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            collectStrokes(task.bandStrokes, task.left, task.top, task.left + task.tileWidth,
+                    task.top + task.tileHeight, tileStrokes);
+            int count = canvas.save();
+            // draw in the coordinates of the canvas, scaled up and moved to the tile's origin
+            canvas.translate(-task.left, -task.top);
+            canvas.scale(scale, scale);
+            for (DrawPath drawPath : tileStrokes)
+            {
+                if (renderer.prepare(drawPath))
+                    renderer.drawPrepared(canvas);
+            }
+            canvas.restoreToCount(count);
+            bitmap.getPixels(task.band, task.left, task.stride, 0, 0, task.tileWidth, task.tileHeight);
+        }
+    }
+}
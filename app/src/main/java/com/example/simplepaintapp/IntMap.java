@@ -0,0 +1,183 @@
+package com.example.simplepaintapp;
+
+/**
+ * Class which maps int keys, such as pointer ids, to objects. The keys are kept unboxed in an open
+ * addressing table, so looking up, adding and removing a key takes constant time whatever the number
+ * of keys, and allocates nothing once the table has grown to the number of keys held at once.
+ * @param <V> - the type of the values.
+ */
+public class IntMap<V>
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    // an empty slot holds a null value
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * Constructor which allocates a table of the default capacity.
+     */
+    public IntMap()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor which allocates a table large enough for a number of keys.
+     * @param capacity - the number of keys which can be held without growing the table.
+     */
+    public IntMap(int capacity)
+    {
+        // the table is kept at most half full, so the probe for a key is short
+        allocate(Integer.highestOneBit(Math.max(2, capacity * 2) - 1) << 1);
+    }
+
+    /**
+     * Returns the number of keys in the map.
+     * @return size - the number of keys.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the value of a key.
+     * @param key - the key.
+     * @return V - the value, or null if the key is not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key)
+    {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key - the key.
+     * @param value - the value, which must not be null.
+     * @return V - the previous value, or null if the key was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value)
+    {
+        if (value == null)
+            throw new NullPointerException("The value of a key must not be null");
+        int slot = home(key);
+        while (values[slot] != null)
+        {
+            if (keys[slot] == key)
+            {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > values.length)
+            grow();
+        return null;
+    }
+
+    /**
+     * Removes a key from the map.
+     * @param key - the key.
+     * @return V - the value of the key, or null if it was not in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key)
+    {
+        int slot = find(key);
+        if (slot < 0)
+            return null;
+        V value = (V) values[slot];
+        // move the later keys of the same run back into the gap where they can still be found from their
+        // home slot, so there is no need to leave a marker in the removed slot
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (values[next] != null)
+        {
+            if (((next - home(keys[next])) & mask) >= ((next - gap) & mask))
+            {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[gap] = null;
+        size--;
+        return value;
+    }
+
+    /**
+     * Removes every key from the map, keeping the table for re-use.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < values.length; i++)
+            values[i] = null;
+        size = 0;
+    }
+
+    /**
+     * Finds the slot of a key.
+     * @param key - the key.
+     * @return int - the slot, or -1 if the key is not in the map.
+     */
+    private int find(int key)
+    {
+        int slot = home(key);
+        while (values[slot] != null)
+        {
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the slot a key is placed in if it is free, spreading consecutive keys across the table.
+     * @param key - the key.
+     * @return int - the slot.
+     */
+    private int home(int key)
+    {
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Allocates an empty table.
+     * @param capacity - the number of slots, which must be a power of two.
+     */
+    private void allocate(int capacity)
+    {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Doubles the size of the table, placing every key again.
+     */
+    @SuppressWarnings("unchecked")
+    private void grow()
+    {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(values.length * 2);
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++)
+        {
+            if (oldValues[i] != null)
+                put(oldKeys[i], (V) oldValues[i]);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.simplepaintapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Class which records a distribution of durations in log-linear buckets, in the style of HdrHistogram.
+ * Values below 128 have a bucket each, and every power of two above that is split into 64 buckets, so
+ * any recorded value is reported to within 1.6% of itself. Recording is lock-free and allocates
+ * nothing, so it can be done from the touch and drawing paths and from background threads at once.
+ *
+ * Values are normally durations in nanoseconds, and those above MAX_VALUE are counted in the top bucket.
+ */
+public class LatencyHistogram
+{
+    public static final long MAX_VALUE = 1L << 40;
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount;
+    private final AtomicLong totalValue;
+    private final AtomicLong max;
+
+    /**
+     * Constructor which creates an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        counts = new AtomicLongArray(getBucket(MAX_VALUE) + 1);
+        totalCount = new AtomicLong();
+        totalValue = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Records a value.
+     * @param value - the value, such as a duration in nanoseconds, where negative values count as 0.
+     */
+    public void record(long value)
+    {
+        if (value < 0)
+            value = 0;
+        counts.incrementAndGet(getBucket(Math.min(value, MAX_VALUE)));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value))
+            current = max.get();
+    }
+
+    /**
+     * Returns the number of values recorded.
+     * @return long - the number of values.
+     */
+    public long getCount()
+    {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the largest value recorded.
+     * @return long - the largest value, or 0 if none have been recorded.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the values recorded.
+     * @return double - the mean, or 0 if none have been recorded.
+     */
+    public double getMean()
+    {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    /**
+     * Returns the value which a given percentage of the recorded values are at or below, to within
+     * the precision of the buckets.
+     * @param percentile - the percentage, from 0 to 100.
+     * @return long - the highest value in the bucket the percentile falls in, or 0 if none have been
+     *                recorded.
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long count = totalCount.get();
+        if (count == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length(); bucket++)
+        {
+            seen += counts.get(bucket);
+            if (seen >= target)
+                return Math.min(getBucketEnd(bucket), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Removes every recorded value. Values recorded at the same time on another thread may be lost.
+     */
+    public void reset()
+    {
+        for (int bucket = 0; bucket < counts.length(); bucket++)
+            counts.set(bucket, 0);
+        totalCount.set(0);
+        totalValue.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     * @param value - the value, from 0 to MAX_VALUE.
+     * @return int - the index of the bucket.
+     */
+    private static int getBucket(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+            return (int) value;
+        // keep the top 7 bits of the value, whose first bit is always set
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (int) (value >>> shift) - SUB_BUCKET_HALF;
+    }
+
+    /**
+     * Returns the highest value counted in a bucket.
+     * @param bucket - the index of the bucket.
+     * @return long - the highest value.
+     */
+    private static long getBucketEnd(int bucket)
+    {
+        if (bucket < SUB_BUCKET_COUNT)
+            return bucket;
+        int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        long top = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -18,6 +18,7 @@ import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.ScaleGestureDetector;
 import android.view.View;
@@ -26,13 +27,29 @@ import android.widget.ImageButton;
 import android.widget.ImageView;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
 
 
 public class MainActivity extends AppCompatActivity implements View.OnClickListener
 {
+    // turns on the render thread when the activity is started, such as with
+    // adb shell am start --ez com.example.simplepaintapp.extra.RENDER_THREAD true
+    public static final String EXTRA_RENDER_THREAD = "com.example.simplepaintapp.extra.RENDER_THREAD";
+    // starts the activity with every finger drawing, which a long press on the style button also toggles
+    public static final String EXTRA_SHARED_DISPLAY = "com.example.simplepaintapp.extra.SHARED_DISPLAY";
+
+    private static final String METRICS_FILE_NAME = "metrics.txt";
+
     private CanvasExporter canvasExporter;
     private CanvasView canvasView;
+    private AutosaveJournal autosaveJournal;
     private ScaleGestureDetector scaleGestureDetector;
+    private boolean sharedDisplay;
 
 
     @SuppressLint("ClickableViewAccessibility")
@@ -44,15 +61,22 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         setContentView(R.layout.activity_main);
         // hide the navigation elements, i.e., status and navigation bar
         hideUINavigation();
-        // create new CanvasExporter and CanvasView objects
-        canvasExporter = new CanvasExporter();
+        // create new CanvasExporter and CanvasView objects, which record their metrics in the same registry
         canvasView = findViewById(R.id.canvasView);
+        // draw the canvas on a dedicated render thread rather than the UI thread, if the activity was
+        // started with it enabled
+        if (getIntent().getBooleanExtra(EXTRA_RENDER_THREAD, false))
+            canvasView.enableRenderThread((CanvasSurfaceView) findViewById(R.id.canvasSurfaceView));
+        sharedDisplay = getIntent().getBooleanExtra(EXTRA_SHARED_DISPLAY, false);
+        canvasExporter = new CanvasExporter(canvasView.getMetricsRegistry());
         // create a new ScaleHandler object to handle scaling
         ScaleHandler scaleHandler = createScaleHandler();
         scaleGestureDetector = new ScaleGestureDetector(MainActivity.this, scaleHandler);
         // get the size of the display and initialise the CanvasView using the values
         DisplayMetrics displayMetrics = getResources().getDisplayMetrics();
         canvasView.initialise(displayMetrics.widthPixels, displayMetrics.heightPixels);
+        // recover the drawing from the previous session, if there is one, and journal every later change
+        startAutosave();
         canvasView.setOnTouchListener(new View.OnTouchListener()
         {
             /**
@@ -65,8 +89,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             @Override
             public boolean onTouch(View v, MotionEvent event)
             {
-                // pass the touch event to the scale gesture detector
-                scaleGestureDetector.onTouchEvent(event);
+                // pass the touch event to the scale gesture detector, unless every finger draws
+                if (!sharedDisplay)
+                    scaleGestureDetector.onTouchEvent(event);
                 // differentiate between pressing down and up
                 switch (event.getAction())
                 {
@@ -79,14 +104,24 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
                         handleUIElements(View.VISIBLE);
                         break;
                 }
-                // ensure that only one finger is being used and that a scale gesture is not in progress
-                if (event.getPointerCount() == 1 && !scaleGestureDetector.isInProgress())
+                if (sharedDisplay)
+                {
+                    // on a shared display several people draw at once, so every finger draws a stroke
+                    // of its own rather than pinching to change the stroke width
+                    canvasView.handleTouches(event);
+                } else if (event.getActionMasked() == MotionEvent.ACTION_POINTER_UP
+                        || event.getActionMasked() == MotionEvent.ACTION_CANCEL)
+                {
+                    // a finger lifting while another is down still ends the stroke it was drawing, as does
+                    // the gesture being cancelled; a finger which was only pinching has no stroke to end
+                    canvasView.handleTouches(event);
+                } else if (event.getPointerCount() == 1 && !scaleGestureDetector.isInProgress())
                 {
                     if (canvasView.getPreviousStrokeWidth() == canvasView.getStrokeWidth())
                     {
                         // provided the scale gesture wasn't completed just before, handle the touches as attempts
-                        // to draw on the canvas
-                        canvasView.handleTouches(event.getX(), event.getY(), event.getAction());
+                        // to draw on the canvas, including any samples batched into the event
+                        canvasView.handleTouches(event);
                     } else
                     {
                         // ignore/remove any touches which were completed just after a scale gesture
@@ -111,14 +146,197 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
 
         ImageButton styleButton = findViewById(R.id.styleButton);
         styleButton.setOnClickListener(this);
+        styleButton.setOnLongClickListener(new View.OnLongClickListener()
+        {
+            /**
+             * Long click handler which switches between pinching to resize the pen and every finger
+             * drawing a stroke of its own.
+             * @param v - the View object which was long clicked.
+             * @return boolean - whether or not the long click is consumed.
+             */
+            @Override
+            public boolean onLongClick(View v)
+            {
+                setSharedDisplay(!sharedDisplay);
+                return true;
+            }
+        });
+        if (sharedDisplay)
+            setSharedDisplay(true);
 
         ImageButton saveButton = findViewById(R.id.saveButton);
         saveButton.setOnClickListener(this);
+        saveButton.setOnLongClickListener(new View.OnLongClickListener()
+        {
+            /**
+             * Long click handler for the save button, which saves a high resolution image.
+             * @param v - the view which was long clicked.
+             * @return boolean - whether or not the long click is consumed.
+             */
+            @Override
+            public boolean onLongClick(View v)
+            {
+                // set the export type to a high resolution save and then check for permission
+                canvasExporter.setExportType(CanvasExporter.FLAG_SAVE_HIGH_RES);
+                checkForPermissions();
+                return true;
+            }
+        });
 
         ImageButton shareButton = findViewById(R.id.shareButton);
         shareButton.setOnClickListener(this);
     }
 
+    /**
+     * Flushes the autosave journal when the activity is no longer visible, and compacts it into a new
+     * base document as the process may be killed at any point from now on.
+     */
+    @Override
+    protected void onStop()
+    {
+        super.onStop();
+        compactJournal();
+        autosaveJournal.flush();
+        writeMetrics();
+    }
+
+    /**
+     * Closes the autosave journal once the activity is finished with it, waiting for the compaction
+     * started when it stopped, so a recreated activity can safely open the journal again. The exporter's
+     * threads stop once any export in progress has finished.
+     */
+    @Override
+    protected void onDestroy()
+    {
+        super.onDestroy();
+        autosaveJournal.close();
+        canvasExporter.close();
+    }
+
+    /**
+     * Returns a snapshot of the metrics, followed by the error of the motion predictor.
+     * @return String - the snapshot.
+     */
+    private String getMetricsSnapshot()
+    {
+        MotionPredictor predictor = canvasView.getMotionPredictor();
+        return canvasView.getMetricsRegistry().getSnapshot() + String.format(Locale.US,
+                "prediction horizon=%.1fms count=%d meanError=%.2fpx maxError=%.2fpx\n", predictor.getHorizon(),
+                predictor.getPredictionCount(), predictor.getMeanError(), predictor.getMaxError());
+    }
+
+    /**
+     * Writes a snapshot of the metrics to a file in the app's files directory, where it can be pulled
+     * from the device to diagnose a session.
+     */
+    private void writeMetrics()
+    {
+        try (Writer writer = new FileWriter(new File(getFilesDir(), METRICS_FILE_NAME)))
+        {
+            writer.write(getMetricsSnapshot());
+        } catch (IOException e)
+        {
+            Log.w("ERROR", "" + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints a snapshot of the metrics on demand, through adb shell dumpsys activity.
+     * @param prefix - the prefix to print before each line.
+     * @param fd - the file descriptor being dumped to.
+     * @param writer - the writer to print to.
+     * @param args - any arguments given to the dump.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args)
+    {
+        super.dump(prefix, fd, writer, args);
+        for (String line : getMetricsSnapshot().split("\n"))
+            writer.println(prefix + line);
+    }
+
+    /**
+     * Recovers the drawing from the autosave journal and connects the journal to the canvas, so that
+     * every committed stroke and every undo, redo, and clear is recorded.
+     */
+    private void startAutosave()
+    {
+        autosaveJournal = new AutosaveJournal(getFilesDir());
+        autosaveJournal.setOnJournalErrorListener(new AutosaveJournal.JournalErrorListener()
+        {
+            /**
+             * Callback method which logs an error reading or writing the journal.
+             * @param e - the error.
+             */
+            @Override
+            public void onJournalError(Exception e)
+            {
+                Log.w("ERROR", "" + e.getMessage());
+            }
+        });
+        try
+        {
+            canvasView.recover(autosaveJournal);
+        } catch (IOException e)
+        {
+            // carry on with an empty canvas, which will not be autosaved
+            Log.w("ERROR", "" + e.getMessage());
+        }
+        canvasView.setOnHistoryChangedListener(new CanvasView.HistoryChangedListener()
+        {
+            /**
+             * Records a committed stroke, compacting the journal if it has grown too large.
+             * @param drawPath - the committed stroke.
+             * @param undone - whether the stroke was undone while it was drawn.
+             */
+            @Override
+            public void onStrokeCommitted(DrawPath drawPath, boolean undone)
+            {
+                autosaveJournal.recordStroke(drawPath);
+                // record the undo before compacting, as the compacted strokes already leave the stroke out
+                if (undone)
+                    autosaveJournal.recordUndo();
+                if (autosaveJournal.isCompactionDue())
+                    compactJournal();
+            }
+
+            /**
+             * Records an undo.
+             */
+            @Override
+            public void onUndo()
+            {
+                autosaveJournal.recordUndo();
+            }
+
+            /**
+             * Records a redo.
+             */
+            @Override
+            public void onRedo()
+            {
+                autosaveJournal.recordRedo();
+            }
+
+            /**
+             * Records a clear.
+             */
+            @Override
+            public void onClear()
+            {
+                autosaveJournal.recordClear();
+            }
+        });
+    }
+
+    /**
+     * Compacts the autosave journal into a new base document holding the current strokes.
+     */
+    private void compactJournal()
+    {
+        canvasView.compactJournal(autosaveJournal);
+    }
+
     /**
      * Hides the UI navigation elements, such as the navigation and status bars.
      */
@@ -239,6 +457,21 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         return scaleHandler;
     }
 
+    /**
+     * Switches between pinching to resize the pen and every finger drawing a stroke of its own, such as
+     * when several people draw on a shared display, and tells the user which is now in use, as pinching
+     * does nothing while every finger draws.
+     * @param sharedDisplay - whether every finger draws a stroke of its own.
+     */
+    private void setSharedDisplay(boolean sharedDisplay)
+    {
+        this.sharedDisplay = sharedDisplay;
+        String message = sharedDisplay
+                ? "Every finger now draws. Long press the style button to pinch to resize the pen again."
+                : "Pinch to resize the pen. Long press the style button to draw with every finger.";
+        Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+    }
+
     /**
      * Hides or displays the UI buttons within the application depending on the input argument.
      * @param showType - whether to display or hide the view elements.
@@ -251,8 +484,9 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
         for (int i = 0; i < viewGroup.getChildCount(); i++)
         {
             View view = viewGroup.getChildAt(i);
-            // if the view is not the canvas or the pen size icon, hide/show it
-            if (view.getId() != R.id.canvasView && view.getId() != R.id.penSizeIcon)
+            // if the view is not the canvas, its surface, or the pen size icon, hide/show it
+            if (view.getId() != R.id.canvasView && view.getId() != R.id.canvasSurfaceView
+                    && view.getId() != R.id.penSizeIcon)
                 view.setVisibility(showType);
         }
     }
@@ -395,42 +629,87 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
     }
 
     /**
-     * Exports the canvas drawing as an image.
+     * Exports the canvas drawing as an image. The image is encoded in the background from a snapshot of
+     * the canvas, so the user can keep drawing while it is exported.
      */
     private void exportImage ()
     {
-        if (canvasExporter.getExportType() == CanvasExporter.FLAG_SAVE)
+        if (canvasExporter.getExportType() == CanvasExporter.FLAG_SAVE
+                || canvasExporter.getExportType() == CanvasExporter.FLAG_SAVE_HIGH_RES)
         {
-            // if the user is wanting to save, attempt and return its filename
-            String fileName = canvasExporter.saveImage(canvasView.getBitmap());
-
-            if (fileName != null)
+            // if the user is wanting to save, attempt it and handle its file once it is written
+            CanvasExporter.ExportCompletedListener listener = new CanvasExporter.ExportCompletedListener()
             {
-                // refresh the gallery to show the new image if it exists
-                MediaScannerConnection.scanFile(
-                        MainActivity.this, new String[]{fileName}, null, null);
-                Toast.makeText(MainActivity.this, "The image was saved successfully.", Toast.LENGTH_SHORT).show();
+                /**
+                 * Callback method which handles the saved image.
+                 * @param image - the saved image file, or null if it could not be saved.
+                 */
+                @Override
+                public void onExportCompleted(File image)
+                {
+                    if (image != null)
+                    {
+                        // refresh the gallery to show the new image if it exists
+                        MediaScannerConnection.scanFile(
+                                MainActivity.this, new String[]{image.getAbsolutePath()}, null, null);
+                        Toast.makeText(MainActivity.this, "The image was saved successfully.", Toast.LENGTH_SHORT).show();
+                    } else
+                    {
+                        Toast.makeText(MainActivity.this, "There was an error saving the image.", Toast.LENGTH_SHORT).show();
+                    }
+                }
+            };
+            if (canvasExporter.getExportType() == CanvasExporter.FLAG_SAVE_HIGH_RES)
+            {
+                // re-render the strokes at a higher resolution rather than saving the screen-sized tiles
+                TileStore tiles = canvasView.getTileStore();
+                final CanvasView exportedView = canvasView;
+                canvasExporter.saveHighResolutionImageAsync(canvasView.getCommittedStrokes(), tiles.getWidth(),
+                        tiles.getHeight(), CanvasExporter.HIGH_RES_SCALE, new CanvasExporter.ExportCompletedListener()
+                        {
+                            /**
+                             * Callback method which lets the strokes be cleared from disk again, then reports
+                             * the saved image.
+                             * @param image - the image file, or null if it could not be saved.
+                             */
+                            @Override
+                            public void onExportCompleted(File image)
+                            {
+                                exportedView.releaseCommittedStrokes();
+                                listener.onExportCompleted(image);
+                            }
+                        });
             } else
             {
-                Toast.makeText(MainActivity.this, "There was an error saving the image.", Toast.LENGTH_SHORT).show();
+                canvasExporter.saveImageAsync(canvasView.snapshot(), listener);
             }
         } else if (canvasExporter.getExportType() == CanvasExporter.FLAG_SHARE)
         {
-            // handle the sharing
-            shareImage();
+            // handle the sharing once the image is written
+            canvasExporter.getImageAsync(canvasView.snapshot(), new CanvasExporter.ExportCompletedListener()
+            {
+                /**
+                 * Callback method which shares the written image.
+                 * @param image - the image file, or null if it could not be written.
+                 */
+                @Override
+                public void onExportCompleted(File image)
+                {
+                    shareImage(image);
+                }
+            });
         }
     }
 
     /**
      * Shares the canvas drawing as an image.
+     * @param image - the image file of the drawing, or null if it could not be written.
      */
-    private void shareImage()
+    private void shareImage(File image)
     {
         // create a new intent to a sharing activity.
         Intent intent = new Intent(Intent.ACTION_SEND);
         intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        // get the image as a file
-        File image = canvasExporter.getImage(canvasView.getBitmap());
 
         if (image != null)
         {
@@ -438,7 +717,7 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             Uri uri = FileProvider.getUriForFile(
                     MainActivity.this,
                     MainActivity.this.getApplicationContext().getPackageName() +
-                            ".provider", canvasExporter.getImage(canvasView.getBitmap()));
+                            ".provider", image);
             // pass the uri to the intent, to allow for sharing
             intent.putExtra(Intent.EXTRA_STREAM, uri).setType("image/png");
             // start the intent
@@ -448,4 +727,4 @@ public class MainActivity extends AppCompatActivity implements View.OnClickListe
             Toast.makeText(MainActivity.this, "There was an error sharing the image.", Toast.LENGTH_SHORT).show();
         }
     }
-}
\ No newline at end of file
+}
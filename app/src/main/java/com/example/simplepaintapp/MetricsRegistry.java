@@ -0,0 +1,161 @@
+package com.example.simplepaintapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class which holds the named counters and latency histograms of the app. Each counter and histogram
+ * is looked up once, when its owner is set up, and then recorded to directly, so recording on the hot
+ * paths costs only a few atomic operations and allocates nothing. A snapshot of every metric can be
+ * taken as text at any time, or written to a file.
+ */
+public class MetricsRegistry
+{
+    private final Map<String, Counter> counters;
+    private final Map<String, LatencyHistogram> histograms;
+
+    /**
+     * Constructor which creates an empty registry.
+     */
+    public MetricsRegistry()
+    {
+        counters = new LinkedHashMap<>();
+        histograms = new LinkedHashMap<>();
+    }
+
+    /**
+     * Returns the counter with a given name, creating it if it does not exist.
+     * @param name - the name of the counter, such as "touch.samples".
+     * @return Counter - the counter.
+     */
+    public synchronized Counter counter(String name)
+    {
+        Counter counter = counters.get(name);
+        if (counter == null)
+        {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram with a given name, creating it if it does not exist.
+     * @param name - the name of the histogram, such as "draw.duration".
+     * @return LatencyHistogram - the histogram, which records durations in nanoseconds.
+     */
+    public synchronized LatencyHistogram histogram(String name)
+    {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null)
+        {
+            histogram = new LatencyHistogram();
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Resets every counter and histogram, such as before reproducing a problem.
+     */
+    public synchronized void reset()
+    {
+        for (Counter counter : counters.values())
+            counter.reset();
+        for (LatencyHistogram histogram : histograms.values())
+            histogram.reset();
+    }
+
+    /**
+     * Returns a snapshot of every metric as text, with one line for each counter and each histogram.
+     * Histograms are reported in milliseconds.
+     * @return String - the snapshot.
+     */
+    public synchronized String getSnapshot()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : counters.entrySet())
+            builder.append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet())
+        {
+            LatencyHistogram histogram = entry.getValue();
+            builder.append(String.format(Locale.US,
+                    "%s count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms\n",
+                    entry.getKey(), histogram.getCount(), histogram.getMean() / 1e6,
+                    histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(90) / 1e6,
+                    histogram.getValueAtPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes a snapshot of every metric to a file, replacing its contents.
+     * @param file - the file to write to.
+     * @throws IOException - if the file could not be written.
+     */
+    public void writeSnapshot(File file) throws IOException
+    {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8")))
+        {
+            writer.write(getSnapshot());
+        }
+    }
+
+    /**
+     * Class which counts events, such as dropped frames, and can be added to from any thread.
+     */
+    public static class Counter
+    {
+        private final AtomicLong count;
+
+        /**
+         * Constructor which creates a counter at zero.
+         */
+        private Counter()
+        {
+            count = new AtomicLong();
+        }
+
+        /**
+         * Adds one to the counter.
+         */
+        public void increment()
+        {
+            count.incrementAndGet();
+        }
+
+        /**
+         * Adds a number to the counter.
+         * @param delta - the number to add.
+         */
+        public void add(long delta)
+        {
+            count.addAndGet(delta);
+        }
+
+        /**
+         * Returns the count.
+         * @return long - the count.
+         */
+        public long get()
+        {
+            return count.get();
+        }
+
+        /**
+         * Sets the counter back to zero.
+         */
+        private void reset()
+        {
+            count.set(0);
+        }
+    }
+}
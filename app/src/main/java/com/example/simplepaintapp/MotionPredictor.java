@@ -0,0 +1,296 @@
+package com.example.simplepaintapp;
+
+/**
+ * Class which predicts where the pen will be a short time after its last reported sample, by fitting a
+ * quadratic in time to each axis of the most recent samples by least squares. The prediction is only
+ * used to draw a temporary tail ahead of the stroke, so the ink appears to keep up with the pen.
+ *
+ * Each prediction is checked against the samples which arrive after it, by comparing it with where the
+ * pen actually was at the predicted time, and the errors are kept as statistics so the horizon can be
+ * tuned for a device.
+ */
+public class MotionPredictor
+{
+    public static final float DEFAULT_HORIZON = 16;
+
+    private static final int SAMPLE_COUNT = 6;
+    private static final long MAX_SAMPLE_AGE = 80;
+    private static final int PENDING_COUNT = 8;
+
+    private final float[] xs;
+    private final float[] ys;
+    private final long[] times;
+    private int head;
+    private int count;
+
+    private float horizon;
+    private float predictedX;
+    private float predictedY;
+
+    private final float[] pendingXs;
+    private final float[] pendingYs;
+    private final long[] pendingTimes;
+    private int pendingHead;
+    private int pendingCount;
+
+    private long predictionCount;
+    private double errorSum;
+    private float maxError;
+
+    /**
+     * Constructor which sets the prediction horizon.
+     * @param horizon - how far ahead of the last sample to predict, in milliseconds.
+     */
+    public MotionPredictor(float horizon)
+    {
+        this.horizon = horizon;
+        xs = new float[SAMPLE_COUNT];
+        ys = new float[SAMPLE_COUNT];
+        times = new long[SAMPLE_COUNT];
+        pendingXs = new float[PENDING_COUNT];
+        pendingYs = new float[PENDING_COUNT];
+        pendingTimes = new long[PENDING_COUNT];
+    }
+
+    /**
+     * Sets the prediction horizon. A longer horizon hides more latency but is wrong more often when
+     * the pen changes direction, and a horizon of zero disables prediction.
+     * @param horizon - how far ahead of the last sample to predict, in milliseconds.
+     */
+    public void setHorizon(float horizon)
+    {
+        this.horizon = Math.max(0, horizon);
+    }
+
+    /**
+     * Returns the prediction horizon.
+     * @return horizon - the horizon in milliseconds.
+     */
+    public float getHorizon()
+    {
+        return horizon;
+    }
+
+    /**
+     * Forgets the samples of the previous stroke, and any prediction which has not been checked yet.
+     */
+    public void reset()
+    {
+        count = 0;
+        head = 0;
+        pendingCount = 0;
+    }
+
+    /**
+     * Adds a sample of the pen, checking any predictions whose time it has reached against it.
+     * @param x - the x-ordinate of the sample.
+     * @param y - the y-ordinate of the sample.
+     * @param time - the time of the sample, in milliseconds.
+     */
+    public void add(float x, float y, long time)
+    {
+        if (count > 0)
+        {
+            int previous = (head + SAMPLE_COUNT - 1) % SAMPLE_COUNT;
+            if (time < times[previous])
+                return;
+            // predictions are made in order, so the oldest is always due first
+            while (pendingCount > 0 && time >= pendingTimes[pendingHead])
+            {
+                // where the pen was at the predicted time, between the previous sample and this one
+                long span = time - times[previous];
+                float fraction = span == 0 ? 1 : (float) (pendingTimes[pendingHead] - times[previous]) / span;
+                float actualX = xs[previous] + (x - xs[previous]) * fraction;
+                float actualY = ys[previous] + (y - ys[previous]) * fraction;
+                float error = (float) Math.hypot(actualX - pendingXs[pendingHead], actualY - pendingYs[pendingHead]);
+                predictionCount++;
+                errorSum += error;
+                maxError = Math.max(maxError, error);
+                pendingHead = (pendingHead + 1) % PENDING_COUNT;
+                pendingCount--;
+            }
+        }
+        xs[head] = x;
+        ys[head] = y;
+        times[head] = time;
+        head = (head + 1) % SAMPLE_COUNT;
+        count = Math.min(count + 1, SAMPLE_COUNT);
+    }
+
+    /**
+     * Predicts where the pen will be one horizon after the last sample, which is then read with
+     * getPredictedX() and getPredictedY().
+     * @return boolean - whether there was enough recent movement to make a prediction.
+     */
+    public boolean predict()
+    {
+        if (count < 2 || horizon <= 0)
+            return false;
+        int last = (head + SAMPLE_COUNT - 1) % SAMPLE_COUNT;
+        long lastTime = times[last];
+        // fit to the samples from the last few frames, in milliseconds before the last sample
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0, s4 = 0;
+        double x0 = 0, x1 = 0, x2 = 0, y0 = 0, y1 = 0, y2 = 0;
+        float oldestX = xs[last], oldestY = ys[last];
+        long oldestTime = lastTime;
+        int used = 0;
+        for (int i = 0; i < count; i++)
+        {
+            int index = (last - i + SAMPLE_COUNT) % SAMPLE_COUNT;
+            double t = times[index] - lastTime;
+            if (-t > MAX_SAMPLE_AGE)
+                break;
+            double tt = t * t;
+            s0 += 1;
+            s1 += t;
+            s2 += tt;
+            s3 += tt * t;
+            s4 += tt * tt;
+            x0 += xs[index];
+            x1 += xs[index] * t;
+            x2 += xs[index] * tt;
+            y0 += ys[index];
+            y1 += ys[index] * t;
+            y2 += ys[index] * tt;
+            oldestX = xs[index];
+            oldestY = ys[index];
+            oldestTime = times[index];
+            used++;
+        }
+        if (used < 2 || oldestTime == lastTime)
+            return false;
+
+        double h = horizon;
+        double dx, dy;
+        // with three samples or more fit a quadratic, which allows for the pen curving or slowing down
+        double determinant = s0 * (s2 * s4 - s3 * s3) - s1 * (s1 * s4 - s3 * s2) + s2 * (s1 * s3 - s2 * s2);
+        if (used >= 3 && Math.abs(determinant) > 1e-9)
+        {
+            dx = evaluate(s0, s1, s2, s3, s4, x0, x1, x2, determinant, h) - xs[last];
+            dy = evaluate(s0, s1, s2, s3, s4, y0, y1, y2, determinant, h) - ys[last];
+        } else
+        {
+            double velocityX = (xs[last] - oldestX) / (double) (lastTime - oldestTime);
+            double velocityY = (ys[last] - oldestY) / (double) (lastTime - oldestTime);
+            dx = velocityX * h;
+            dy = velocityY * h;
+        }
+        // never predict further ahead than the pen's average speed over the fitted samples would carry
+        // it, so a sudden stop does not throw the tail far past the pen
+        double limit = Math.hypot(xs[last] - oldestX, ys[last] - oldestY)
+                * Math.min(1, h / (lastTime - oldestTime));
+        double distance = Math.hypot(dx, dy);
+        if (distance > limit)
+        {
+            dx *= limit / distance;
+            dy *= limit / distance;
+        }
+        predictedX = (float) (xs[last] + dx);
+        predictedY = (float) (ys[last] + dy);
+        // keep the prediction to be checked once the pen reaches its time, dropping the oldest if too
+        // many are waiting
+        if (pendingCount == PENDING_COUNT)
+        {
+            pendingHead = (pendingHead + 1) % PENDING_COUNT;
+            pendingCount--;
+        }
+        int index = (pendingHead + pendingCount) % PENDING_COUNT;
+        pendingXs[index] = predictedX;
+        pendingYs[index] = predictedY;
+        pendingTimes[index] = lastTime + Math.round(h);
+        pendingCount++;
+        return true;
+    }
+
+    /**
+     * Returns the x-ordinate of the last prediction.
+     * @return predictedX - the x-ordinate.
+     */
+    public float getPredictedX()
+    {
+        return predictedX;
+    }
+
+    /**
+     * Returns the y-ordinate of the last prediction.
+     * @return predictedY - the y-ordinate.
+     */
+    public float getPredictedY()
+    {
+        return predictedY;
+    }
+
+    /**
+     * Returns the number of predictions which have been checked against the samples that followed them.
+     * @return predictionCount - the number of predictions.
+     */
+    public long getPredictionCount()
+    {
+        return predictionCount;
+    }
+
+    /**
+     * Returns the mean distance between the predictions and where the pen actually was.
+     * @return float - the mean error in pixels.
+     */
+    public float getMeanError()
+    {
+        return predictionCount == 0 ? 0 : (float) (errorSum / predictionCount);
+    }
+
+    /**
+     * Returns the largest distance between a prediction and where the pen actually was.
+     * @return maxError - the largest error in pixels.
+     */
+    public float getMaxError()
+    {
+        return maxError;
+    }
+
+    /**
+     * Resets the error statistics, such as after changing the horizon.
+     */
+    public void resetStatistics()
+    {
+        predictionCount = 0;
+        errorSum = 0;
+        maxError = 0;
+    }
+
+    /**
+     * Adds the error statistics of another predictor to this one's, such as one which followed another
+     * pointer, and then resets the other predictor's statistics.
+     * @param other - the other predictor.
+     */
+    public void mergeStatistics(MotionPredictor other)
+    {
+        predictionCount += other.predictionCount;
+        errorSum += other.errorSum;
+        maxError = Math.max(maxError, other.maxError);
+        other.resetStatistics();
+    }
+
+    /**
+     * Evaluates the least squares quadratic through one axis of the samples at a given time, by solving
+     * the normal equations with Cramer's rule.
+     * @param s0 - the number of samples.
+     * @param s1 - the sum of the times.
+     * @param s2 - the sum of the squared times.
+     * @param s3 - the sum of the cubed times.
+     * @param s4 - the sum of the times to the fourth power.
+     * @param v0 - the sum of the values.
+     * @param v1 - the sum of the values multiplied by the times.
+     * @param v2 - the sum of the values multiplied by the squared times.
+     * @param determinant - the determinant of the normal equations.
+     * @param t - the time to evaluate the quadratic at.
+     * @return double - the value of the quadratic.
+     */
+    private static double evaluate(double s0, double s1, double s2, double s3, double s4,
+                                   double v0, double v1, double v2, double determinant, double t)
+    {
+        double a = (v0 * (s2 * s4 - s3 * s3) - s1 * (v1 * s4 - s3 * v2) + s2 * (v1 * s3 - s2 * v2)) / determinant;
+        double b = (s0 * (v1 * s4 - v2 * s3) - v0 * (s1 * s4 - s3 * s2) + s2 * (s1 * v2 - v1 * s2)) / determinant;
+        double c = (s0 * (s2 * v2 - s3 * v1) - s1 * (s1 * v2 - v1 * s2) + v0 * (s1 * s3 - s2 * s2)) / determinant;
+        return a + b * t + c * t * t;
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.simplepaintapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Class which encodes an image as a PNG a few rows at a time, so the whole image never has to be held
+ * in memory. Rows are given as ARGB pixels, written as 8-bit RGBA with the Sub filter, and compressed
+ * into IDAT chunks as they arrive. The writer must be closed once it is finished with, even if writing
+ * failed, to free the native memory of its compressor.
+ */
+public class PngStreamWriter implements Closeable
+{
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final byte FILTER_SUB = 1;
+
+    private final OutputStream outputStream;
+    private final int width;
+    private final int height;
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] row;
+    private final byte[] chunk;
+    private final byte[] header;
+
+    private int rowsWritten;
+
+    /**
+     * Constructor which writes the signature and the header of the image.
+     * @param outputStream - the stream to write the image to.
+     * @param width - the width of the image.
+     * @param height - the height of the image.
+     * @throws IOException - if the header could not be written.
+     */
+    public PngStreamWriter(OutputStream outputStream, int width, int height) throws IOException
+    {
+        this.outputStream = outputStream;
+        this.width = width;
+        this.height = height;
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        crc = new CRC32();
+        row = new byte[1 + width * 4];
+        chunk = new byte[CHUNK_BYTES];
+        header = new byte[8];
+
+        try
+        {
+            outputStream.write(SIGNATURE);
+            byte[] ihdr = new byte[13];
+            putInt(ihdr, 0, width);
+            putInt(ihdr, 4, height);
+            // 8 bits per channel, RGBA, deflate, adaptive filtering, no interlacing
+            ihdr[8] = 8;
+            ihdr[9] = 6;
+            writeChunk("IHDR", ihdr, ihdr.length);
+        } catch (IOException e)
+        {
+            // the caller never gets a writer to close
+            deflater.end();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the next rows of the image.
+     * @param pixels - the ARGB pixels of the rows, which are not premultiplied.
+     * @param offset - the index of the first pixel of the first row.
+     * @param stride - the number of pixels from the start of one row to the next.
+     * @param rowCount - the number of rows.
+     * @throws IOException - if the rows could not be written.
+     */
+    public void writeRows(int[] pixels, int offset, int stride, int rowCount) throws IOException
+    {
+        if (rowsWritten + rowCount > height)
+            throw new IllegalArgumentException("More rows than the height of the image");
+        for (int r = 0; r < rowCount; r++)
+        {
+            int start = offset + r * stride;
+            row[0] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0; x < width; x++)
+            {
+                // each byte is stored as the difference from the same channel of the pixel to its left
+                int argb = pixels[start + x];
+                int rgba = (argb << 8) | (argb >>> 24);
+                int i = 1 + x * 4;
+                row[i] = (byte) ((rgba >>> 24) - (previous >>> 24));
+                row[i + 1] = (byte) ((rgba >>> 16) - (previous >>> 16));
+                row[i + 2] = (byte) ((rgba >>> 8) - (previous >>> 8));
+                row[i + 3] = (byte) (rgba - previous);
+                previous = rgba;
+            }
+            deflater.setInput(row);
+            while (!deflater.needsInput())
+                writeCompressed(deflater.deflate(chunk, 0, chunk.length, Deflater.NO_FLUSH));
+        }
+        rowsWritten += rowCount;
+    }
+
+    /**
+     * Writes the rest of the compressed data and the end of the image. Every row must have been written.
+     * @throws IOException - if the image could not be finished.
+     */
+    public void finish() throws IOException
+    {
+        if (rowsWritten != height)
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows were written");
+        deflater.finish();
+        while (!deflater.finished())
+            writeCompressed(deflater.deflate(chunk, 0, chunk.length));
+        writeChunk("IEND", chunk, 0);
+        outputStream.flush();
+    }
+
+    /**
+     * Frees the compressor, whether or not the image was finished. The stream is left open.
+     */
+    @Override
+    public void close()
+    {
+        deflater.end();
+    }
+
+    /**
+     * Writes compressed data from the chunk buffer as an IDAT chunk.
+     * @param length - the number of compressed bytes in the chunk buffer.
+     * @throws IOException - if the chunk could not be written.
+     */
+    private void writeCompressed(int length) throws IOException
+    {
+        if (length > 0)
+            writeChunk("IDAT", chunk, length);
+    }
+
+    /**
+     * Writes a chunk, made up of its length, type, data, and a checksum of the type and data.
+     * @param type - the four letter type of the chunk.
+     * @param data - the data of the chunk.
+     * @param length - the number of bytes of data.
+     * @throws IOException - if the chunk could not be written.
+     */
+    private void writeChunk(String type, byte[] data, int length) throws IOException
+    {
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++)
+            header[4 + i] = (byte) type.charAt(i);
+        crc.reset();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        outputStream.write(header, 0, 8);
+        outputStream.write(data, 0, length);
+        putInt(header, 0, (int) crc.getValue());
+        outputStream.write(header, 0, 4);
+    }
+
+    /**
+     * Stores an int in big-endian order.
+     * @param bytes - the array to store the int in.
+     * @param offset - the index of the first byte.
+     * @param value - the int.
+     */
+    private static void putInt(byte[] bytes, int offset, int value)
+    {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
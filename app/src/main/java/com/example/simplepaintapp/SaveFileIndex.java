@@ -0,0 +1,127 @@
+package com.example.simplepaintapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Class which hands out unique, numbered file names within a directory in constant time. The next
+ * number is kept in a small index file which is replaced atomically, and is rebuilt from a scan of
+ * the directory if the index file is lost or unreadable.
+ */
+public class SaveFileIndex
+{
+    private static final String INDEX_FILE_NAME = ".index";
+    private static final String TEMP_FILE_NAME = ".index.tmp";
+    private static final Charset CHARSET = Charset.forName("US-ASCII");
+
+    private final File directory;
+    private final String prefix;
+    private final String extension;
+    private final File indexFile;
+
+    private long next;
+
+    /**
+     * Constructor which sets the directory and the form of the file names.
+     * @param directory - the directory the files are created in.
+     * @param prefix - the start of each file name, before the number.
+     * @param extension - the end of each file name, after the number.
+     */
+    public SaveFileIndex(File directory, String prefix, String extension)
+    {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.extension = extension;
+        indexFile = new File(directory, prefix + INDEX_FILE_NAME);
+        next = -1;
+    }
+
+    /**
+     * Returns a file with the next unused number, and records that the number has been used.
+     * @return File - the new file, which does not exist yet.
+     */
+    public synchronized File nextFile()
+    {
+        if (next < 0)
+            next = readIndex();
+        // the index should always be ahead of the files, but never overwrite one if it is not
+        File file = new File(directory, prefix + next + extension);
+        while (file.exists())
+            file = new File(directory, prefix + ++next + extension);
+        next++;
+        writeIndex(next);
+        return file;
+    }
+
+    /**
+     * Reads the next number from the index file, or rebuilds it if the file cannot be read.
+     * @return long - the next number.
+     */
+    private long readIndex()
+    {
+        byte[] data = new byte[20];
+        try (FileInputStream inputStream = new FileInputStream(indexFile))
+        {
+            int length = inputStream.read(data);
+            if (length > 0)
+                return Long.parseLong(new String(data, 0, length, CHARSET).trim());
+        } catch (IOException | NumberFormatException e)
+        {
+            // fall through and rebuild the index from the directory
+        }
+        return rebuild();
+    }
+
+    /**
+     * Scans the directory for the highest numbered file and returns the number after it.
+     * @return long - the next number.
+     */
+    private long rebuild()
+    {
+        long highest = 0;
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                String name = file.getName();
+                if (!name.startsWith(prefix) || !name.endsWith(extension))
+                    continue;
+                try
+                {
+                    highest = Math.max(highest, Long.parseLong(
+                            name.substring(prefix.length(), name.length() - extension.length())));
+                } catch (NumberFormatException e)
+                {
+                    // not one of the numbered files
+                }
+            }
+        }
+        return highest + 1;
+    }
+
+    /**
+     * Writes the next number to a temporary file and renames it over the index file, so the index is
+     * never left half-written.
+     * @param next - the next number.
+     */
+    private void writeIndex(long next)
+    {
+        File tempFile = new File(directory, prefix + TEMP_FILE_NAME);
+        try (FileOutputStream outputStream = new FileOutputStream(tempFile))
+        {
+            outputStream.write(Long.toString(next).getBytes(CHARSET));
+            outputStream.getFD().sync();
+        } catch (IOException e)
+        {
+            // the next save rebuilds the index from the directory instead
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(indexFile))
+            tempFile.delete();
+    }
+}
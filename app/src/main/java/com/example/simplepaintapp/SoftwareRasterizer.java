@@ -0,0 +1,346 @@
+package com.example.simplepaintapp;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class which draws strokes into an ARGB pixel buffer without any Android dependencies, so drawings can
+ * be rendered on a plain JVM for thumbnails, golden image tests, and batch re-rendering. Strokes are
+ * smoothed into the same quadratic curves as the StrokeRenderer, and drawn with round caps and joins
+ * and anti-aliased edges to match its Paint.
+ *
+ * The pixels are held in the same form as Bitmap.getPixels(), as ARGB ints which are not premultiplied.
+ * Each stroke is rasterized into a coverage mask first and then blended once, so a translucent stroke
+ * which crosses itself is no darker where it overlaps, as with Canvas.drawPath().
+ */
+public class SoftwareRasterizer
+{
+    private static final float FLATTEN_TOLERANCE = 0.25f;
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+
+    private float scale;
+    private float translateX;
+    private float translateY;
+
+    private float[] lineXs;
+    private float[] lineYs;
+    private int lineSize;
+    private float[] coverage;
+
+    /**
+     * Constructor which creates a new, transparent pixel buffer.
+     * @param width - the width of the buffer.
+     * @param height - the height of the buffer.
+     */
+    public SoftwareRasterizer(int width, int height)
+    {
+        this(new int[width * height], width, height);
+    }
+
+    /**
+     * Constructor which draws into an existing pixel buffer.
+     * @param pixels - the ARGB pixels, one row after another.
+     * @param width - the width of the buffer.
+     * @param height - the height of the buffer.
+     */
+    public SoftwareRasterizer(int[] pixels, int width, int height)
+    {
+        if (pixels.length < width * height)
+            throw new IllegalArgumentException("The pixel buffer is smaller than " + width + "x" + height);
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        scale = 1;
+        lineXs = new float[64];
+        lineYs = new float[64];
+        coverage = new float[0];
+    }
+
+    /**
+     * Returns the pixel buffer.
+     * @return pixels - the ARGB pixels, one row after another.
+     */
+    public int[] getPixels()
+    {
+        return pixels;
+    }
+
+    /**
+     * Returns the width of the pixel buffer.
+     * @return width - the width.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the pixel buffer.
+     * @return height - the height.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns a single pixel.
+     * @param x - the x-ordinate of the pixel.
+     * @param y - the y-ordinate of the pixel.
+     * @return int - the ARGB colour of the pixel.
+     */
+    public int getPixel(int x, int y)
+    {
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Fills every pixel with a colour.
+     * @param colour - the ARGB colour, or 0 to leave the buffer transparent.
+     */
+    public void clear(int colour)
+    {
+        Arrays.fill(pixels, 0, width * height, colour);
+    }
+
+    /**
+     * Sets the transform from canvas coordinates to pixels, which scales the strokes and their widths
+     * and then moves them.
+     * @param scale - the scale, such as below 1 for thumbnails.
+     * @param translateX - the distance to move the strokes right after scaling them.
+     * @param translateY - the distance to move the strokes down after scaling them.
+     */
+    public void setTransform(float scale, float translateX, float translateY)
+    {
+        this.scale = scale;
+        this.translateX = translateX;
+        this.translateY = translateY;
+    }
+
+    /**
+     * Draws a list of strokes in order.
+     * @param strokes - the strokes.
+     * @throws IOException - if a stroke's points could not be paged in.
+     */
+    public void drawStrokes(List<DrawPath> strokes) throws IOException
+    {
+        for (DrawPath drawPath : strokes)
+            drawStroke(drawPath);
+    }
+
+    /**
+     * Draws a stroke with its own colour and width.
+     * @param drawPath - the stroke.
+     * @throws IOException - if the stroke's points could not be paged in.
+     */
+    public void drawStroke(DrawPath drawPath) throws IOException
+    {
+        drawStroke(drawPath.getPoints(), drawPath.getColour(), drawPath.getWidth());
+    }
+
+    /**
+     * Draws a stroke through a set of points.
+     * @param points - the points of the stroke.
+     * @param colour - the ARGB colour of the stroke.
+     * @param strokeWidth - the width of the stroke in canvas coordinates, where 0 is a single pixel.
+     */
+    public void drawStroke(StrokePoints points, int colour, float strokeWidth)
+    {
+        if (points.size() == 0 || (colour >>> 24) == 0)
+            return;
+        flatten(points);
+        // a width of 0 is a hairline, as with Paint
+        float radius = Math.max(strokeWidth * scale, 1) / 2;
+
+        // the area of pixels the stroke may cover, clipped to the buffer
+        float minX = lineXs[0], minY = lineYs[0], maxX = minX, maxY = minY;
+        for (int i = 1; i < lineSize; i++)
+        {
+            minX = Math.min(minX, lineXs[i]);
+            minY = Math.min(minY, lineYs[i]);
+            maxX = Math.max(maxX, lineXs[i]);
+            maxY = Math.max(maxY, lineYs[i]);
+        }
+        int left = Math.max(0, (int) Math.floor(minX - radius - 1));
+        int top = Math.max(0, (int) Math.floor(minY - radius - 1));
+        int right = Math.min(width, (int) Math.ceil(maxX + radius + 1));
+        int bottom = Math.min(height, (int) Math.ceil(maxY + radius + 1));
+        if (left >= right || top >= bottom)
+            return;
+
+        int maskWidth = right - left;
+        int maskSize = maskWidth * (bottom - top);
+        if (coverage.length < maskSize)
+            coverage = new float[maskSize];
+        Arrays.fill(coverage, 0, maskSize, 0);
+        if (lineSize == 1)
+            coverSegment(lineXs[0], lineYs[0], lineXs[0], lineYs[0], radius, left, top, right, bottom);
+        for (int i = 1; i < lineSize; i++)
+            coverSegment(lineXs[i - 1], lineYs[i - 1], lineXs[i], lineYs[i], radius, left, top, right, bottom);
+        blend(colour, left, top, right, bottom);
+    }
+
+    /**
+     * Turns the smoothed curves through the points into a line of short segments in pixel coordinates.
+     * @param points - the points of the stroke.
+     */
+    private void flatten(StrokePoints points)
+    {
+        lineSize = 0;
+        float currentX = transformX(points.getX(0));
+        float currentY = transformY(points.getY(0));
+        addLinePoint(currentX, currentY);
+        for (int i = 1; i < points.size(); i++)
+        {
+            // each point is smoothed into a quadratic curve ending half-way to the next
+            float controlX = transformX(points.getX(i - 1));
+            float controlY = transformY(points.getY(i - 1));
+            float endX = (transformX(points.getX(i)) + controlX) / 2;
+            float endY = (transformY(points.getY(i)) + controlY) / 2;
+            // split the curve into enough lines to stay within the tolerance of it
+            float ddX = currentX - 2 * controlX + endX;
+            float ddY = currentY - 2 * controlY + endY;
+            double deviation = Math.sqrt(ddX * ddX + ddY * ddY);
+            int steps = Math.max(1, (int) Math.ceil(Math.sqrt(deviation / (8 * FLATTEN_TOLERANCE))));
+            for (int step = 1; step <= steps; step++)
+            {
+                float t = (float) step / steps;
+                float u = 1 - t;
+                addLinePoint(u * u * currentX + 2 * u * t * controlX + t * t * endX,
+                        u * u * currentY + 2 * u * t * controlY + t * t * endY);
+            }
+            currentX = endX;
+            currentY = endY;
+        }
+        // the stroke is closed with a line to the last point
+        addLinePoint(transformX(points.getX(points.size() - 1)), transformY(points.getY(points.size() - 1)));
+    }
+
+    /**
+     * Adds a point to the end of the flattened line.
+     * @param x - the x-ordinate of the point.
+     * @param y - the y-ordinate of the point.
+     */
+    private void addLinePoint(float x, float y)
+    {
+        if (lineSize == lineXs.length)
+        {
+            lineXs = Arrays.copyOf(lineXs, lineSize * 2);
+            lineYs = Arrays.copyOf(lineYs, lineSize * 2);
+        }
+        lineXs[lineSize] = x;
+        lineYs[lineSize] = y;
+        lineSize++;
+    }
+
+    /**
+     * Adds the coverage of a segment with round ends to the mask. The round ends of neighbouring segments
+     * overlap to make the round joins, and each pixel keeps the highest coverage of any segment.
+     * @param x0 - the x-ordinate of the start of the segment.
+     * @param y0 - the y-ordinate of the start of the segment.
+     * @param x1 - the x-ordinate of the end of the segment.
+     * @param y1 - the y-ordinate of the end of the segment.
+     * @param radius - half the width of the stroke in pixels.
+     * @param left - the left edge of the mask.
+     * @param top - the top edge of the mask.
+     * @param right - the right edge of the mask.
+     * @param bottom - the bottom edge of the mask.
+     */
+    private void coverSegment(float x0, float y0, float x1, float y1, float radius,
+                              int left, int top, int right, int bottom)
+    {
+        int fromX = Math.max(left, (int) Math.floor(Math.min(x0, x1) - radius - 1));
+        int fromY = Math.max(top, (int) Math.floor(Math.min(y0, y1) - radius - 1));
+        int toX = Math.min(right, (int) Math.ceil(Math.max(x0, x1) + radius + 1));
+        int toY = Math.min(bottom, (int) Math.ceil(Math.max(y0, y1) + radius + 1));
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        int maskWidth = right - left;
+        for (int y = fromY; y < toY; y++)
+        {
+            float py = y + 0.5f - y0;
+            int row = (y - top) * maskWidth - left;
+            for (int x = fromX; x < toX; x++)
+            {
+                // the distance from the centre of the pixel to the nearest point of the segment
+                float px = x + 0.5f - x0;
+                float t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+                float ex = px - t * dx;
+                float ey = py - t * dy;
+                float distance = (float) Math.sqrt(ex * ex + ey * ey);
+                // the edge is anti-aliased over the pixel either side of it
+                float cover = radius + 0.5f - distance;
+                if (cover <= 0)
+                    continue;
+                if (cover > 1)
+                    cover = 1;
+                if (cover > coverage[row + x])
+                    coverage[row + x] = cover;
+            }
+        }
+    }
+
+    /**
+     * Blends a colour over the pixels in proportion to the coverage mask.
+     * @param colour - the ARGB colour of the stroke.
+     * @param left - the left edge of the mask.
+     * @param top - the top edge of the mask.
+     * @param right - the right edge of the mask.
+     * @param bottom - the bottom edge of the mask.
+     */
+    private void blend(int colour, int left, int top, int right, int bottom)
+    {
+        float alpha = (colour >>> 24) / 255f;
+        int red = (colour >> 16) & 0xff;
+        int green = (colour >> 8) & 0xff;
+        int blue = colour & 0xff;
+        int maskWidth = right - left;
+        for (int y = top; y < bottom; y++)
+        {
+            int row = (y - top) * maskWidth - left;
+            for (int x = left; x < right; x++)
+            {
+                float cover = coverage[row + x];
+                if (cover == 0)
+                    continue;
+                int index = y * width + x;
+                float sourceAlpha = alpha * cover;
+                int destination = pixels[index];
+                float destinationAlpha = (destination >>> 24) / 255f;
+                // source over, worked out on premultiplied values and then divided back out
+                float keep = destinationAlpha * (1 - sourceAlpha);
+                float outAlpha = sourceAlpha + keep;
+                float outRed = (red * sourceAlpha + ((destination >> 16) & 0xff) * keep) / outAlpha;
+                float outGreen = (green * sourceAlpha + ((destination >> 8) & 0xff) * keep) / outAlpha;
+                float outBlue = (blue * sourceAlpha + (destination & 0xff) * keep) / outAlpha;
+                pixels[index] = (Math.round(outAlpha * 255) << 24) | (Math.round(outRed) << 16)
+                        | (Math.round(outGreen) << 8) | Math.round(outBlue);
+            }
+        }
+    }
+
+    /**
+     * Moves an x-ordinate from canvas coordinates into pixels.
+     * @param x - the x-ordinate.
+     * @return float - the x-ordinate in pixels.
+     */
+    private float transformX(float x)
+    {
+        return x * scale + translateX;
+    }
+
+    /**
+     * Moves a y-ordinate from canvas coordinates into pixels.
+     * @param y - the y-ordinate.
+     * @return float - the y-ordinate in pixels.
+     */
+    private float transformY(float y)
+    {
+        return y * scale + translateY;
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.simplepaintapp;
+
+/**
+ * Class which builds a stroke from the touch samples of a single gesture. Samples which have not moved
+ * at least the touch tolerance from the last point added are dropped, and once the gesture ends the
+ * nearly collinear points are simplified away and the points are moved into arrays of exactly their size.
+ * Strokes are drawn into buffers from a StrokePool, so no samples cause any allocation.
+ *
+ * This holds the part of the touch handling which has no Android dependencies, so it can be run and
+ * measured on a plain JVM.
+ */
+public class StrokeBuilder
+{
+    public static final float DEFAULT_TOUCH_TOLERANCE = 4;
+
+    private final StrokeSimplifier simplifier;
+    private final StrokePool pool;
+    private float touchTolerance;
+
+    private DrawPath drawPath;
+    private float x, y;
+
+    /**
+     * Constructor which sets the simplifier applied to each finished stroke.
+     * @param simplifier - the stroke simplifier.
+     * @param touchTolerance - the distance, in pixels along either axis, a sample must move from the
+     *                       last point added before it is added itself.
+     */
+    public StrokeBuilder(StrokeSimplifier simplifier, float touchTolerance)
+    {
+        this(simplifier, touchTolerance, new StrokePool());
+    }
+
+    /**
+     * Constructor which sets the simplifier applied to each finished stroke and the pool strokes are
+     * drawn from.
+     * @param simplifier - the stroke simplifier.
+     * @param touchTolerance - the distance, in pixels along either axis, a sample must move from the
+     *                       last point added before it is added itself.
+     * @param pool - the pool of point buffers.
+     */
+    public StrokeBuilder(StrokeSimplifier simplifier, float touchTolerance, StrokePool pool)
+    {
+        this.simplifier = simplifier;
+        this.touchTolerance = touchTolerance;
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the touch tolerance.
+     * @param touchTolerance - the distance, in pixels along either axis, a sample must move from the
+     *                       last point added before it is added itself.
+     */
+    public void setTouchTolerance(float touchTolerance)
+    {
+        this.touchTolerance = Math.max(0, touchTolerance);
+    }
+
+    /**
+     * Returns the touch tolerance.
+     * @return touchTolerance - the touch tolerance in pixels.
+     */
+    public float getTouchTolerance()
+    {
+        return touchTolerance;
+    }
+
+    /**
+     * Returns the stroke being built.
+     * @return drawPath - the stroke, or null if no gesture has been started.
+     */
+    public DrawPath getCurrent()
+    {
+        return drawPath;
+    }
+
+    /**
+     * Returns the pool strokes are drawn from.
+     * @return pool - the stroke pool.
+     */
+    public StrokePool getPool()
+    {
+        return pool;
+    }
+
+    /**
+     * Starts a new stroke at the first sample of a gesture, finishing any stroke whose gesture did not end.
+     * @param x - the x-ordinate of the sample.
+     * @param y - the y-ordinate of the sample.
+     * @param time - the time of the sample.
+     * @param colour - the colour of the stroke.
+     * @param width - the width of the stroke.
+     * @return DrawPath - the new stroke.
+     */
+    public DrawPath begin(float x, float y, long time, int colour, int width)
+    {
+        if (drawPath != null)
+            end();
+        drawPath = pool.obtain(colour, width);
+        drawPath.getResidentPoints().add(x, y, time);
+        this.x = x;
+        this.y = y;
+        return drawPath;
+    }
+
+    /**
+     * Adds a sample to the stroke, if it has moved far enough from the last point added.
+     * @param x - the x-ordinate of the sample.
+     * @param y - the y-ordinate of the sample.
+     * @param time - the time of the sample.
+     * @return boolean - true if the sample was added.
+     */
+    public boolean add(float x, float y, long time)
+    {
+        if (drawPath == null)
+            return false;
+        // calculate the difference in x and y
+        float dx = Math.abs(x - this.x);
+        float dy = Math.abs(y - this.y);
+        // if the difference in x or y is less than the minimum tolerance, drop the sample
+        if (dx < touchTolerance && dy < touchTolerance)
+            return false;
+        drawPath.getResidentPoints().add(x, y, time);
+        this.x = x;
+        this.y = y;
+        return true;
+    }
+
+    /**
+     * Finishes the stroke, dropping the nearly collinear points so later replays have less to draw and
+     * then moving the points out of the pool's buffer into arrays of exactly their size.
+     * @return DrawPath - the finished stroke, or null if no gesture had been started.
+     */
+    public DrawPath end()
+    {
+        DrawPath finished = drawPath;
+        if (finished == null)
+            return null;
+        simplifier.simplify(finished.getResidentPoints());
+        pool.finish(finished);
+        drawPath = null;
+        return finished;
+    }
+}
@@ -0,0 +1,613 @@
+package com.example.simplepaintapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class which holds the undo and redo lists of strokes within a memory budget. When the points of the
+ * strokes take up more than the budget, the points of the oldest strokes are spilled to a file on disk
+ * in the background and paged back in only if they are drawn again.
+ *
+ * The memory used is kept as a running total, which each stroke reports its paging to, and the oldest
+ * strokes are spilled from a cursor past those spilled already, so keeping to the budget costs only the
+ * strokes which have changed since it was last checked, however long the history grows.
+ *
+ * The oldest strokes can also be baked, which takes them out of the undo list for good once they are
+ * further back than anyone will undo. Baked strokes are still kept so the drawing can be saved and
+ * exported in full, but their points are spilled as soon as they are baked.
+ */
+public class StrokeHistory
+{
+    public static final long DEFAULT_MEMORY_BUDGET = 8 * 1024 * 1024;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ArrayList<DrawPath> baked;
+    private final ArrayList<DrawPath> undo;
+    private final ArrayList<DrawPath> redo;
+
+    private final StrokeSpillFile spillFile;
+    private final ExecutorService executor;
+    private final Set<DrawPath> spilling;
+    private final LinkedHashSet<DrawPath> pagedIn;
+    private final DrawPath.FootprintListener footprintListener;
+
+    private long memoryBudget;
+    private int trimmed;
+    private SpillErrorListener errorListener;
+
+    // guarded by the spilling set, as they are also changed by whichever thread pages a stroke in or out
+    private long memoryUsage;
+    private long spillingBytes;
+    private int spilledCount;
+    private boolean spillFailed;
+    private boolean closed;
+    private int generation;
+
+    /**
+     * Constructor which sets up the undo and redo lists.
+     * @param spillFile - the file to spill the points of old strokes into.
+     * @param memoryBudget - the number of bytes the points of the strokes may take up.
+     */
+    public StrokeHistory(StrokeSpillFile spillFile, long memoryBudget)
+    {
+        this.spillFile = spillFile;
+        this.memoryBudget = memoryBudget;
+        // sized up front so adding a stroke rarely has to grow the lists
+        baked = new ArrayList<>(INITIAL_CAPACITY);
+        undo = new ArrayList<>(INITIAL_CAPACITY);
+        redo = new ArrayList<>(INITIAL_CAPACITY);
+        // write to the spill file on a single background thread so the touch handling never waits on it
+        executor = Executors.newSingleThreadExecutor();
+        spilling = Collections.newSetFromMap(new IdentityHashMap<DrawPath, Boolean>());
+        pagedIn = new LinkedHashSet<>();
+        footprintListener = new DrawPath.FootprintListener()
+        {
+            /**
+             * Counts the points of a spilled stroke which were paged back in, and queues the stroke to be
+             * released before any other is spilled.
+             * @param drawPath - the stroke.
+             * @param footprint - the number of bytes its points take up.
+             */
+            @Override
+            public void onPagedIn(DrawPath drawPath, long footprint)
+            {
+                synchronized (spilling)
+                {
+                    memoryUsage += footprint;
+                    spilledCount--;
+                    pagedIn.add(drawPath);
+                }
+            }
+
+            /**
+             * Stops counting the points of a stroke which were released.
+             * @param drawPath - the stroke.
+             * @param footprint - the number of bytes its points took up.
+             */
+            @Override
+            public void onPagedOut(DrawPath drawPath, long footprint)
+            {
+                synchronized (spilling)
+                {
+                    memoryUsage -= footprint;
+                    spilledCount++;
+                    pagedIn.remove(drawPath);
+                }
+            }
+
+            /**
+             * Counts the change in size of the points of a stroke, such as once it is finished.
+             * @param drawPath - the stroke.
+             * @param change - the number of bytes its points have grown by.
+             */
+            @Override
+            public void onResized(DrawPath drawPath, long change)
+            {
+                synchronized (spilling)
+                {
+                    memoryUsage += change;
+                }
+            }
+        };
+    }
+
+    /**
+     * Sets the listener which is notified on the background thread of any error writing the spill file.
+     * @param errorListener - the listener.
+     */
+    public void setOnSpillErrorListener(SpillErrorListener errorListener)
+    {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Adds a stroke to the end of the undo list.
+     * @param drawPath - the stroke.
+     */
+    public void add(DrawPath drawPath)
+    {
+        undo.add(drawPath);
+        track(drawPath);
+    }
+
+    /**
+     * Adds a stroke to the end of the baked strokes, such as one which was baked before the drawing was
+     * saved. It must be added before any stroke in the undo list.
+     * @param drawPath - the stroke.
+     */
+    public void addBaked(DrawPath drawPath)
+    {
+        baked.add(drawPath);
+        track(drawPath);
+        release(drawPath);
+    }
+
+    /**
+     * Adds a stroke to the end of the redo list, making it the next stroke to be redone.
+     * @param drawPath - the stroke.
+     */
+    public void addRedo(DrawPath drawPath)
+    {
+        redo.add(drawPath);
+        track(drawPath);
+    }
+
+    /**
+     * Moves the most recent stroke from the undo list to the redo list.
+     * @return DrawPath - the stroke which was undone, or null if there is nothing to undo.
+     */
+    public DrawPath undo()
+    {
+        if (undo.isEmpty())
+            return null;
+        DrawPath drawPath = undo.remove(undo.size() - 1);
+        redo.add(drawPath);
+        trimmed = Math.min(trimmed, undo.size());
+        return drawPath;
+    }
+
+    /**
+     * Moves the most recently undone stroke from the redo list back to the undo list.
+     * @return DrawPath - the stroke which was redone, or null if there is nothing to redo.
+     */
+    public DrawPath redo()
+    {
+        if (redo.isEmpty())
+            return null;
+        DrawPath drawPath = redo.remove(redo.size() - 1);
+        undo.add(drawPath);
+        return drawPath;
+    }
+
+    /**
+     * Moves a stroke in the undo list down to an earlier index, moving the strokes in between up by one.
+     * This costs only the number of strokes in between.
+     * @param from - the index of the stroke.
+     * @param to - the index to move it to, which must not be after the stroke.
+     */
+    public void move(int from, int to)
+    {
+        DrawPath drawPath = undo.get(from);
+        for (int i = from; i > to; i--)
+            undo.set(i, undo.get(i - 1));
+        undo.set(to, drawPath);
+        // the strokes moved up may not have been spilled yet
+        trimmed = Math.min(trimmed, to);
+    }
+
+    /**
+     * Takes the oldest strokes out of the undo list, so they can no longer be undone, and keeps them as
+     * baked strokes, spilling their points in the background.
+     * @param count - the number of strokes to bake, from the oldest.
+     * @return List - a new list of the strokes which were baked, in the order they were drawn.
+     */
+    public List<DrawPath> bake(int count)
+    {
+        List<DrawPath> oldest = undo.subList(0, count);
+        ArrayList<DrawPath> strokes = new ArrayList<>(oldest);
+        baked.addAll(oldest);
+        oldest.clear();
+        trimmed = Math.max(0, trimmed - count);
+        // baked strokes are only read again to be saved or exported, so they never wait for the budget
+        for (DrawPath drawPath : strokes)
+            release(drawPath);
+        return strokes;
+    }
+
+    /**
+     * Returns the number of strokes which have been baked, which are shown on the canvas underneath
+     * the strokes in the undo list.
+     * @return int - the number of baked strokes.
+     */
+    public int getBakedCount()
+    {
+        return baked.size();
+    }
+
+    /**
+     * Returns a baked stroke.
+     * @param index - the index of the stroke, from the oldest.
+     * @return DrawPath - the stroke.
+     */
+    public DrawPath getBaked(int index)
+    {
+        return baked.get(index);
+    }
+
+    /**
+     * Returns the number of strokes in the undo list, which are the strokes shown on the canvas above
+     * the baked strokes.
+     * @return int - the number of strokes.
+     */
+    public int size()
+    {
+        return undo.size();
+    }
+
+    /**
+     * Returns a stroke from the undo list.
+     * @param index - the index of the stroke, from the oldest.
+     * @return DrawPath - the stroke.
+     */
+    public DrawPath get(int index)
+    {
+        return undo.get(index);
+    }
+
+    /**
+     * Returns the number of strokes in the redo list.
+     * @return int - the number of strokes which can be redone.
+     */
+    public int getRedoSize()
+    {
+        return redo.size();
+    }
+
+    /**
+     * Returns every stroke in the order it was drawn, which is the baked strokes and the undo list
+     * followed by the redo list from the next stroke to be redone. The first getBakedCount() + size()
+     * strokes are the ones shown on the canvas.
+     * @return ArrayList - a new list of the strokes.
+     */
+    public ArrayList<DrawPath> getTimeline()
+    {
+        ArrayList<DrawPath> timeline = new ArrayList<>(baked.size() + undo.size() + redo.size());
+        timeline.addAll(baked);
+        timeline.addAll(undo);
+        for (int i = redo.size() - 1; i >= 0; i--)
+            timeline.add(redo.get(i));
+        return timeline;
+    }
+
+    /**
+     * Empties the lists and the spill file.
+     */
+    public void clear()
+    {
+        for (DrawPath drawPath : baked)
+            drawPath.attach(null);
+        for (DrawPath drawPath : undo)
+            drawPath.attach(null);
+        for (DrawPath drawPath : redo)
+            drawPath.attach(null);
+        baked.clear();
+        undo.clear();
+        redo.clear();
+        trimmed = 0;
+        synchronized (spilling)
+        {
+            // any spill still queued belongs to a stroke which no longer exists
+            generation++;
+            spilling.clear();
+            pagedIn.clear();
+            memoryUsage = 0;
+            spillingBytes = 0;
+            spilledCount = 0;
+            spillFailed = false;
+            if (closed)
+                return;
+        }
+        executor.execute(new Runnable()
+        {
+            /**
+             * Empties the spill file after any writes already queued.
+             */
+            @Override
+            public void run()
+            {
+                try
+                {
+                    spillFile.clear();
+                } catch (IOException e)
+                {
+                    reportError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops spilling, waits for any spill which is being written, and then closes and deletes the spill
+     * file. Strokes whose points were spilled can no longer be paged back in, so the history is closed only
+     * once nothing will draw, save or export its strokes again.
+     */
+    public void close()
+    {
+        synchronized (spilling)
+        {
+            // any spill still queued is dropped, as nothing will page it back in
+            closed = true;
+            generation++;
+            spilling.clear();
+            spillingBytes = 0;
+        }
+        executor.shutdown();
+        boolean interrupted = false;
+        while (!executor.isTerminated())
+        {
+            try
+            {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        // keep the interrupt for the caller, rather than closing the file under a write
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        try
+        {
+            spillFile.close();
+        } catch (IOException e)
+        {
+            reportError(e);
+        }
+    }
+
+    /**
+     * Keeps the points of every stroke spilled so far readable, even if the history is cleared or closed,
+     * until releaseSpilled() is called, such as while the strokes are exported in the background.
+     */
+    public void retainSpilled()
+    {
+        spillFile.retain();
+    }
+
+    /**
+     * Stops keeping the spilled points readable for a caller of retainSpilled().
+     */
+    public void releaseSpilled()
+    {
+        try
+        {
+            spillFile.release();
+        } catch (IOException e)
+        {
+            reportError(e);
+        }
+    }
+
+    /**
+     * Sets the number of bytes the points of the strokes may take up, spilling strokes if needed.
+     * @param memoryBudget - the memory budget in bytes.
+     */
+    public void setMemoryBudget(long memoryBudget)
+    {
+        this.memoryBudget = memoryBudget;
+        trimToBudget();
+    }
+
+    /**
+     * Returns the number of bytes the points of the strokes may take up.
+     * @return memoryBudget - the memory budget in bytes.
+     */
+    public long getMemoryBudget()
+    {
+        return memoryBudget;
+    }
+
+    /**
+     * Returns the number of bytes currently taken up by the points of the strokes held in memory.
+     * @return long - the memory usage in bytes.
+     */
+    public long getMemoryUsage()
+    {
+        synchronized (spilling)
+        {
+            return memoryUsage;
+        }
+    }
+
+    /**
+     * Returns the number of strokes whose points are currently paged out to disk.
+     * @return int - the number of spilled strokes.
+     */
+    public int getSpilledCount()
+    {
+        synchronized (spilling)
+        {
+            return spilledCount;
+        }
+    }
+
+    /**
+     * Spills the points of the oldest strokes until the memory usage is within the budget. The most
+     * recent stroke is always kept in memory.
+     */
+    public void trimToBudget()
+    {
+        trimToBudget(1);
+    }
+
+    /**
+     * Spills the points of the oldest strokes until the memory usage is within the budget, always keeping
+     * a number of the most recent strokes in memory, such as the strokes which are still being drawn.
+     * Strokes which were paged back in since they were spilled are released first, oldest first, and then
+     * the oldest strokes in the undo list which have not been spilled yet.
+     * @param keep - the number of the most recent strokes to keep in memory.
+     */
+    public void trimToBudget(int keep)
+    {
+        DrawPath drawPath;
+        while ((drawPath = nextPagedIn()) != null)
+            drawPath.pageOut();
+        synchronized (spilling)
+        {
+            // a stroke which could not be written is still in memory behind the cursor, so look again
+            if (spillFailed)
+            {
+                spillFailed = false;
+                trimmed = 0;
+            }
+        }
+        int count = undo.size() - keep;
+        while (trimmed < count && isOverBudget())
+            release(undo.get(trimmed++));
+    }
+
+    /**
+     * Starts tracking the memory taken up by the points of a stroke which has joined the history.
+     * @param drawPath - the stroke.
+     */
+    private void track(DrawPath drawPath)
+    {
+        long footprint = drawPath.attach(footprintListener);
+        synchronized (spilling)
+        {
+            if (footprint == 0)
+                spilledCount++;
+            else
+                memoryUsage += footprint;
+        }
+    }
+
+    /**
+     * Returns whether the memory usage is over the budget, not counting strokes which are being spilled.
+     * @return boolean - whether more strokes need to be spilled.
+     */
+    private boolean isOverBudget()
+    {
+        synchronized (spilling)
+        {
+            return memoryUsage - spillingBytes > memoryBudget;
+        }
+    }
+
+    /**
+     * Takes the stroke which was paged back in longest ago off the queue of strokes to release, if the
+     * memory usage is over the budget.
+     * @return DrawPath - the stroke, or null if there is nothing more to release.
+     */
+    private DrawPath nextPagedIn()
+    {
+        synchronized (spilling)
+        {
+            if (pagedIn.isEmpty() || memoryUsage - spillingBytes <= memoryBudget)
+                return null;
+            Iterator<DrawPath> iterator = pagedIn.iterator();
+            DrawPath drawPath = iterator.next();
+            iterator.remove();
+            return drawPath;
+        }
+    }
+
+    /**
+     * Releases the points of a stroke, straight away if they were stored before or otherwise once they
+     * have been spilled in the background.
+     * @param drawPath - the stroke.
+     */
+    private void release(DrawPath drawPath)
+    {
+        if (drawPath.pageOut())
+            return;
+        long footprint = drawPath.getMemoryFootprint();
+        if (footprint == 0)
+            return;
+        int spillGeneration;
+        synchronized (spilling)
+        {
+            // already being written, so it will be released shortly, or nothing more is spilled once closed
+            if (closed || !spilling.add(drawPath))
+                return;
+            spillingBytes += footprint;
+            spillGeneration = generation;
+        }
+        spill(drawPath, footprint, spillGeneration);
+    }
+
+    /**
+     * Writes the points of a stroke to the spill file in the background and then releases them.
+     * @param drawPath - the stroke to be spilled.
+     * @param footprint - the number of bytes the points take up, which were counted as being spilled.
+     * @param spillGeneration - the generation of the history the stroke belongs to.
+     */
+    private void spill(final DrawPath drawPath, final long footprint, final int spillGeneration)
+    {
+        executor.execute(new Runnable()
+        {
+            /**
+             * Writes the points, unless the history has been cleared since the spill was queued.
+             */
+            @Override
+            public void run()
+            {
+                synchronized (spilling)
+                {
+                    if (spillGeneration != generation)
+                        return;
+                }
+                boolean failed = false;
+                try
+                {
+                    long handle = spillFile.write(drawPath.getPoints());
+                    drawPath.pageOut(spillFile, handle);
+                } catch (IOException e)
+                {
+                    // the points stay in memory if they could not be written
+                    failed = true;
+                    reportError(e);
+                } finally
+                {
+                    synchronized (spilling)
+                    {
+                        if (spillGeneration == generation)
+                        {
+                            spilling.remove(drawPath);
+                            spillingBytes -= footprint;
+                            spillFailed |= failed;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Passes an error to the error listener, if there is one.
+     * @param e - the error.
+     */
+    private void reportError(IOException e)
+    {
+        if (errorListener != null)
+            errorListener.onSpillError(e);
+    }
+
+    /**
+     * Interface which handles callbacks when the points of a stroke could not be spilled.
+     */
+    public interface SpillErrorListener
+    {
+        void onSpillError(IOException e);
+    }
+}
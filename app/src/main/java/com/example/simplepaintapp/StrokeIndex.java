@@ -0,0 +1,263 @@
+package com.example.simplepaintapp;
+
+import java.util.Arrays;
+
+/**
+ * Class which indexes the bounding boxes of the strokes shown on the canvas in a uniform grid, so the
+ * strokes which touch an area can be found without looking at every stroke. Strokes are identified by
+ * their position in the undo list, and as strokes are only ever added to or removed from the end of
+ * that list, the index is kept up to date in the same way.
+ *
+ * Each stroke's bounding box is inflated by half its width, plus a pixel for the anti-aliased edge, so
+ * it covers every pixel the stroke was drawn on. Results are returned in the order the strokes were drawn.
+ */
+public class StrokeIndex
+{
+    public static final int DEFAULT_CELL_SIZE = 128;
+
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+
+    private final int[][] cells;
+    private final int[] cellSizes;
+
+    private float[] lefts;
+    private float[] tops;
+    private float[] rights;
+    private float[] bottoms;
+    private int[] stamps;
+    private int size;
+
+    private int[] results;
+    private int resultCount;
+    private int stamp;
+
+    /**
+     * Constructor which sets up an empty grid covering the canvas, with the default cell size.
+     * @param width - the width of the canvas.
+     * @param height - the height of the canvas.
+     */
+    public StrokeIndex(int width, int height)
+    {
+        this(width, height, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Constructor which sets up an empty grid covering the canvas. Strokes which reach past the edges
+     * of the canvas are held in the cells along those edges.
+     * @param width - the width of the canvas.
+     * @param height - the height of the canvas.
+     * @param cellSize - the width and height of each cell.
+     */
+    public StrokeIndex(int width, int height, int cellSize)
+    {
+        this.cellSize = cellSize;
+        columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        cells = new int[columns * rows][];
+        cellSizes = new int[columns * rows];
+        lefts = new float[64];
+        tops = new float[64];
+        rights = new float[64];
+        bottoms = new float[64];
+        stamps = new int[64];
+        results = new int[64];
+    }
+
+    /**
+     * Returns the number of strokes in the index.
+     * @return size - the number of strokes.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Adds a stroke to the end of the index, where its position is the number of strokes before it.
+     * @param drawPath - the stroke, whose points must be final.
+     */
+    public void add(DrawPath drawPath)
+    {
+        if (size == lefts.length)
+        {
+            int capacity = size + (size >> 1) + 1;
+            lefts = Arrays.copyOf(lefts, capacity);
+            tops = Arrays.copyOf(tops, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            bottoms = Arrays.copyOf(bottoms, capacity);
+            stamps = Arrays.copyOf(stamps, capacity);
+        }
+        float inset = drawPath.getWidth() / 2f + 1;
+        lefts[size] = drawPath.getMinX() - inset;
+        tops[size] = drawPath.getMinY() - inset;
+        rights[size] = drawPath.getMaxX() + inset;
+        bottoms[size] = drawPath.getMaxY() + inset;
+        stamps[size] = 0;
+
+        int firstColumn = column(lefts[size]);
+        int lastColumn = column(rights[size]);
+        int lastRow = row(bottoms[size]);
+        for (int row = row(tops[size]); row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int cell = row * columns + column;
+                if (cells[cell] == null)
+                    cells[cell] = new int[8];
+                else if (cellSizes[cell] == cells[cell].length)
+                    cells[cell] = Arrays.copyOf(cells[cell], cellSizes[cell] * 2);
+                cells[cell][cellSizes[cell]++] = size;
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Removes the most recently added stroke from the index.
+     */
+    public void removeLast()
+    {
+        if (size == 0)
+            return;
+        size--;
+        // the stroke was added last, so it is at the end of every cell it is in
+        int firstColumn = column(lefts[size]);
+        int lastColumn = column(rights[size]);
+        int lastRow = row(bottoms[size]);
+        for (int row = row(tops[size]); row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+                cellSizes[row * columns + column]--;
+        }
+    }
+
+    /**
+     * Removes every stroke from the index, keeping the memory of the cells for re-use.
+     */
+    public void clear()
+    {
+        size = 0;
+        Arrays.fill(cellSizes, 0);
+    }
+
+    /**
+     * Finds the strokes whose inflated bounding boxes intersect a rectangle. The positions of the strokes
+     * are then read with getResult(), and stay valid until the next query.
+     * @param left - the left edge of the rectangle.
+     * @param top - the top edge of the rectangle.
+     * @param right - the right edge of the rectangle.
+     * @param bottom - the bottom edge of the rectangle.
+     * @return int - the number of strokes found.
+     */
+    public int query(float left, float top, float right, float bottom)
+    {
+        return query(left, top, right, bottom, Float.NaN, Float.NaN, 0);
+    }
+
+    /**
+     * Finds the strokes whose inflated bounding boxes lie within a given distance of a point. The
+     * positions of the strokes are then read with getResult(), and stay valid until the next query.
+     * @param x - the x-ordinate of the point.
+     * @param y - the y-ordinate of the point.
+     * @param radius - the distance from the point.
+     * @return int - the number of strokes found.
+     */
+    public int queryRadius(float x, float y, float radius)
+    {
+        return query(x - radius, y - radius, x + radius, y + radius, x, y, radius);
+    }
+
+    /**
+     * Returns the position of a stroke found by the last query, in the order the strokes were drawn.
+     * @param index - the index of the result.
+     * @return int - the position of the stroke in the undo list.
+     */
+    public int getResult(int index)
+    {
+        return results[index];
+    }
+
+    /**
+     * Finds the strokes whose inflated bounding boxes intersect a rectangle and, if a point is given,
+     * lie within a given distance of it.
+     * @param left - the left edge of the rectangle.
+     * @param top - the top edge of the rectangle.
+     * @param right - the right edge of the rectangle.
+     * @param bottom - the bottom edge of the rectangle.
+     * @param x - the x-ordinate of the point, or NaN to only test the rectangle.
+     * @param y - the y-ordinate of the point, or NaN to only test the rectangle.
+     * @param radius - the distance from the point.
+     * @return int - the number of strokes found.
+     */
+    private int query(float left, float top, float right, float bottom, float x, float y, float radius)
+    {
+        resultCount = 0;
+        if (size == 0 || right < left || bottom < top)
+            return 0;
+        // a stroke in several of the cells is only tested once per query
+        if (++stamp == 0)
+        {
+            Arrays.fill(stamps, 0);
+            stamp = 1;
+        }
+        boolean radial = !Float.isNaN(x);
+        int firstColumn = column(left);
+        int lastColumn = column(right);
+        int lastRow = row(bottom);
+        for (int row = row(top); row <= lastRow; row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int cell = row * columns + column;
+                int[] positions = cells[cell];
+                for (int i = 0; i < cellSizes[cell]; i++)
+                {
+                    int position = positions[i];
+                    if (stamps[position] == stamp)
+                        continue;
+                    stamps[position] = stamp;
+                    if (lefts[position] > right || rights[position] < left
+                            || tops[position] > bottom || bottoms[position] < top)
+                        continue;
+                    if (radial)
+                    {
+                        // the distance from the point to the nearest edge of the bounding box
+                        float dx = Math.max(0, Math.max(lefts[position] - x, x - rights[position]));
+                        float dy = Math.max(0, Math.max(tops[position] - y, y - bottoms[position]));
+                        if (dx * dx + dy * dy > radius * radius)
+                            continue;
+                    }
+                    if (resultCount == results.length)
+                        results = Arrays.copyOf(results, resultCount * 2);
+                    results[resultCount++] = position;
+                }
+            }
+        }
+        // the cells are each in order, but together they are not
+        if (firstColumn != lastColumn || row(top) != lastRow)
+            Arrays.sort(results, 0, resultCount);
+        return resultCount;
+    }
+
+    /**
+     * Returns the column of the cell holding an x-ordinate, clamped to the grid.
+     * @param x - the x-ordinate.
+     * @return int - the column.
+     */
+    private int column(float x)
+    {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor(x / cellSize)));
+    }
+
+    /**
+     * Returns the row of the cell holding a y-ordinate, clamped to the grid.
+     * @param y - the y-ordinate.
+     * @return int - the row.
+     */
+    private int row(float y)
+    {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor(y / cellSize)));
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.simplepaintapp;
+
+import java.util.Arrays;
+
+/**
+ * Class which holds the sampled points of a stroke in growable primitive arrays, along with their
+ * bounding box and, optionally, the time at which each point was sampled.
+ */
+public class StrokePoints
+{
+    private static final int DEFAULT_CAPACITY = 32;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int OBJECT_BYTES = 48;
+
+    private float[] xs;
+    private float[] ys;
+    private int[] times;
+
+    private int size;
+    private long startTime;
+
+    private float minX, minY, maxX, maxY;
+
+    /**
+     * Constructor which creates an empty set of points with a default capacity.
+     * @param withTimes - whether to hold the time of each point.
+     */
+    public StrokePoints(boolean withTimes)
+    {
+        this(DEFAULT_CAPACITY, withTimes);
+    }
+
+    /**
+     * Constructor which creates an empty set of points with a given capacity.
+     * @param capacity - the number of points which can be held before growing.
+     * @param withTimes - whether to hold the time of each point.
+     */
+    public StrokePoints(int capacity, boolean withTimes)
+    {
+        capacity = Math.max(1, capacity);
+        xs = new float[capacity];
+        ys = new float[capacity];
+        if (withTimes)
+            times = new int[capacity];
+    }
+
+    /**
+     * Adds a point to the end of the stroke.
+     * @param x - the x-ordinate of the point.
+     * @param y - the y-ordinate of the point.
+     * @param time - the time of the point in milliseconds, ignored if times are not held.
+     */
+    public void add(float x, float y, long time)
+    {
+        if (size == xs.length)
+            grow(size + (size >> 1) + 1);
+        xs[size] = x;
+        ys[size] = y;
+        if (times != null)
+        {
+            // times are held relative to the first point to keep them in an int
+            if (size == 0)
+                startTime = time;
+            times[size] = (int) (time - startTime);
+        }
+        // update the bounding box
+        if (size == 0)
+        {
+            minX = maxX = x;
+            minY = maxY = y;
+        } else
+        {
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        size++;
+    }
+
+    /**
+     * Returns the number of points in the stroke.
+     * @return size - the number of points.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the x-ordinate of a point.
+     * @param index - the index of the point.
+     * @return float - the x-ordinate.
+     */
+    public float getX(int index)
+    {
+        return xs[index];
+    }
+
+    /**
+     * Returns the y-ordinate of a point.
+     * @param index - the index of the point.
+     * @return float - the y-ordinate.
+     */
+    public float getY(int index)
+    {
+        return ys[index];
+    }
+
+    /**
+     * Returns whether the time of each point is held.
+     * @return boolean - whether times are held.
+     */
+    public boolean hasTimes()
+    {
+        return times != null;
+    }
+
+    /**
+     * Returns the time of a point, or 0 if times are not held.
+     * @param index - the index of the point.
+     * @return long - the time of the point in milliseconds.
+     */
+    public long getTime(int index)
+    {
+        return times == null ? 0 : startTime + times[index];
+    }
+
+    /**
+     * Returns the left edge of the bounding box of the points.
+     * @return minX - the smallest x-ordinate.
+     */
+    public float getMinX()
+    {
+        return minX;
+    }
+
+    /**
+     * Returns the top edge of the bounding box of the points.
+     * @return minY - the smallest y-ordinate.
+     */
+    public float getMinY()
+    {
+        return minY;
+    }
+
+    /**
+     * Returns the right edge of the bounding box of the points.
+     * @return maxX - the largest x-ordinate.
+     */
+    public float getMaxX()
+    {
+        return maxX;
+    }
+
+    /**
+     * Returns the bottom edge of the bounding box of the points.
+     * @return maxY - the largest y-ordinate.
+     */
+    public float getMaxY()
+    {
+        return maxY;
+    }
+
+    /**
+     * Removes every point which is not flagged to be kept, preserving the order of the rest.
+     * @param keep - whether to keep each point, indexed in the same way as the points.
+     * @return int - the number of points removed.
+     */
+    public int retain(boolean[] keep)
+    {
+        int kept = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (!keep[i])
+                continue;
+            xs[kept] = xs[i];
+            ys[kept] = ys[i];
+            if (times != null)
+                times[kept] = times[i];
+            kept++;
+        }
+        int removed = size - kept;
+        size = kept;
+        // recalculate the bounding box of the remaining points
+        for (int i = 0; i < size; i++)
+        {
+            minX = i == 0 ? xs[i] : Math.min(minX, xs[i]);
+            minY = i == 0 ? ys[i] : Math.min(minY, ys[i]);
+            maxX = i == 0 ? xs[i] : Math.max(maxX, xs[i]);
+            maxY = i == 0 ? ys[i] : Math.max(maxY, ys[i]);
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every point, keeping the arrays so the points of another stroke can be added without
+     * allocating.
+     */
+    public void clear()
+    {
+        size = 0;
+        startTime = 0;
+        minX = minY = maxX = maxY = 0;
+    }
+
+    /**
+     * Returns the number of points which can be held before the arrays grow.
+     * @return int - the capacity.
+     */
+    public int getCapacity()
+    {
+        return xs.length;
+    }
+
+    /**
+     * Returns a copy of the points in arrays of exactly their size.
+     * @return StrokePoints - the copy.
+     */
+    public StrokePoints copy()
+    {
+        StrokePoints copy = new StrokePoints(size, times != null);
+        System.arraycopy(xs, 0, copy.xs, 0, size);
+        System.arraycopy(ys, 0, copy.ys, 0, size);
+        if (times != null)
+            System.arraycopy(times, 0, copy.times, 0, size);
+        copy.size = size;
+        copy.startTime = startTime;
+        copy.minX = minX;
+        copy.minY = minY;
+        copy.maxX = maxX;
+        copy.maxY = maxY;
+        return copy;
+    }
+
+    /**
+     * Shrinks the arrays to the number of points, once no more points will be added.
+     */
+    public void trimToSize()
+    {
+        if (size > 0 && size < xs.length)
+            grow(size);
+    }
+
+    /**
+     * Returns the approximate number of bytes held by this object and its arrays.
+     * @return long - the memory footprint in bytes.
+     */
+    public long getMemoryFootprint()
+    {
+        long bytes = OBJECT_BYTES + 2 * (ARRAY_HEADER_BYTES + 4L * xs.length);
+        if (times != null)
+            bytes += ARRAY_HEADER_BYTES + 4L * times.length;
+        return bytes;
+    }
+
+    /**
+     * Resizes the arrays to a given capacity.
+     * @param capacity - the new capacity.
+     */
+    private void grow(int capacity)
+    {
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        if (times != null)
+            times = Arrays.copyOf(times, capacity);
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.simplepaintapp;
+
+/**
+ * Class which holds the objects a stroke needs while it is drawn, so that drawing a stroke allocates
+ * nothing from its first touch to its last. Each stroke is drawn into a large point buffer from the pool,
+ * which is only grown by a longer stroke than any before it and is then kept at that size. Once the
+ * stroke is finished its points are copied into arrays of exactly their size, and the buffer is returned
+ * to the pool for the next stroke.
+ *
+ * A reserve of empty DrawPath objects is also kept, and refilled when a stroke is finished, so the
+ * stroke's own objects are all allocated together at the end of the stroke rather than at its start.
+ * Finished strokes are never taken back, as they may still be read by the autosave, an export, or the
+ * spill file after they have left the history.
+ */
+public class StrokePool
+{
+    public static final int DEFAULT_BUFFER_CAPACITY = 4096;
+    public static final int DEFAULT_RESERVE = 2;
+
+    private final int bufferCapacity;
+    private final StrokePoints[] buffers;
+    private final DrawPath[] reserve;
+    private int bufferCount;
+    private int reserveCount;
+
+    /**
+     * Constructor which fills the pool with the default number of buffers of the default capacity.
+     */
+    public StrokePool()
+    {
+        this(DEFAULT_BUFFER_CAPACITY, DEFAULT_RESERVE);
+    }
+
+    /**
+     * Constructor which fills the pool.
+     * @param bufferCapacity - the number of points each buffer holds before it grows.
+     * @param size - the number of buffers and empty DrawPath objects to keep, which is the number of
+     *             strokes which can be drawn at once without allocating.
+     */
+    public StrokePool(int bufferCapacity, int size)
+    {
+        this.bufferCapacity = bufferCapacity;
+        buffers = new StrokePoints[Math.max(1, size)];
+        reserve = new DrawPath[Math.max(1, size)];
+        while (bufferCount < buffers.length)
+            buffers[bufferCount++] = new StrokePoints(bufferCapacity, true);
+        refill();
+    }
+
+    /**
+     * Returns an empty stroke backed by a point buffer from the pool.
+     * @param colour - the colour of the stroke.
+     * @param width - the width of the stroke.
+     * @return DrawPath - the stroke, which must be passed to finish() once no more points will be added.
+     */
+    public DrawPath obtain(int colour, int width)
+    {
+        StrokePoints buffer = bufferCount > 0 ? buffers[--bufferCount] : new StrokePoints(bufferCapacity, true);
+        buffers[bufferCount] = null;
+        buffer.clear();
+        DrawPath drawPath = reserveCount > 0 ? reserve[--reserveCount] : new DrawPath(0, 0, null);
+        reserve[reserveCount] = null;
+        drawPath.reset(colour, width, buffer);
+        return drawPath;
+    }
+
+    /**
+     * Finishes a stroke from obtain() by moving its points into arrays of exactly their size, and then
+     * returns its buffer to the pool and refills the reserve of empty DrawPath objects.
+     * @param drawPath - the stroke.
+     */
+    public void finish(DrawPath drawPath)
+    {
+        StrokePoints buffer = drawPath.getResidentPoints();
+        drawPath.setPoints(buffer.copy());
+        if (bufferCount < buffers.length)
+            buffers[bufferCount++] = buffer;
+        refill();
+    }
+
+    /**
+     * Returns the number of buffers waiting in the pool.
+     * @return bufferCount - the number of buffers.
+     */
+    public int getBufferCount()
+    {
+        return bufferCount;
+    }
+
+    /**
+     * Fills the reserve of empty DrawPath objects.
+     */
+    private void refill()
+    {
+        while (reserveCount < reserve.length)
+            reserve[reserveCount++] = new DrawPath(0, 0, null);
+    }
+}
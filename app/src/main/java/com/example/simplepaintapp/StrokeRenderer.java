@@ -0,0 +1,185 @@
+package com.example.simplepaintapp;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import java.io.IOException;
+
+/**
+ * Class which draws DrawPath objects onto a canvas. The Path object for a stroke is built from its
+ * points only when it is drawn, and is re-used between strokes.
+ */
+public class StrokeRenderer
+{
+    private final Paint paint;
+    private final Path path;
+
+    /**
+     * Constructor which sets up the Paint object used for every stroke.
+     */
+    public StrokeRenderer()
+    {
+        // define and add set attributes for the paint object
+        paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setDither(true);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setXfermode(null);
+        paint.setAlpha(0xff);
+        path = new Path();
+    }
+
+    /**
+     * Draws a whole stroke onto a canvas.
+     * @param canvas - the canvas to draw on.
+     * @param drawPath - the stroke to be drawn.
+     * @throws IOException - if the stroke's points could not be paged in.
+     */
+    public void draw(Canvas canvas, DrawPath drawPath) throws IOException
+    {
+        if (prepare(drawPath))
+            drawPrepared(canvas);
+    }
+
+    /**
+     * Builds the Path object for a whole stroke, ready to be drawn by drawPrepared().
+     * @param drawPath - the stroke to be drawn.
+     * @return boolean - whether there is anything to draw.
+     * @throws IOException - if the stroke's points could not be paged in.
+     */
+    public boolean prepare(DrawPath drawPath) throws IOException
+    {
+        StrokePoints points = drawPath.getPoints();
+        if (points.size() == 0)
+            return false;
+        // each point is smoothed into a quadratic curve ending half-way to the next, and the
+        // stroke is closed with a line to the last point
+        path.rewind();
+        path.incReserve(points.size() + 1);
+        path.moveTo(points.getX(0), points.getY(0));
+        for (int i = 1; i < points.size(); i++)
+        {
+            float previousX = points.getX(i - 1);
+            float previousY = points.getY(i - 1);
+            path.quadTo(previousX, previousY, (points.getX(i) + previousX) / 2, (points.getY(i) + previousY) / 2);
+        }
+        path.lineTo(points.getX(points.size() - 1), points.getY(points.size() - 1));
+        applyPaint(drawPath);
+        return true;
+    }
+
+    /**
+     * Builds the Path object for only the most recent segment of a stroke, ready to be drawn by
+     * drawPrepared(). Each segment begins where the previous one ended and leaves it along the same
+     * tangent, so the round caps meet the same way the round joins of the whole path would.
+     * @param drawPath - the stroke being drawn.
+     * @param closing - whether to build the closing line to the last point, rather than the curve added by it.
+     * @param bounds - set to the bounding box of the segment's start, control and end points.
+     * @return boolean - whether there is anything to draw.
+     */
+    public boolean prepareLastSegment(DrawPath drawPath, boolean closing, RectF bounds)
+    {
+        // a stroke being drawn is never paged out
+        StrokePoints points = drawPath.getResidentPoints();
+        if (points == null)
+            return false;
+        int last = points.size() - 1;
+        // the curve added by a point ends half-way between it and the previous point
+        int end = closing ? last : last - 1;
+        if (end < 0)
+            return false;
+        float startX = points.getX(0);
+        float startY = points.getY(0);
+        if (end > 0)
+        {
+            startX = (points.getX(end) + points.getX(end - 1)) / 2;
+            startY = (points.getY(end) + points.getY(end - 1)) / 2;
+        }
+        float controlX = points.getX(end);
+        float controlY = points.getY(end);
+
+        path.rewind();
+        path.moveTo(startX, startY);
+        if (closing)
+        {
+            // a single dot if the user only tapped
+            path.lineTo(controlX, controlY);
+            bounds.set(Math.min(startX, controlX), Math.min(startY, controlY),
+                    Math.max(startX, controlX), Math.max(startY, controlY));
+        } else
+        {
+            float endX = (points.getX(last) + controlX) / 2;
+            float endY = (points.getY(last) + controlY) / 2;
+            path.quadTo(controlX, controlY, endX, endY);
+            // the curve lies within the box around its start, control and end points
+            bounds.set(Math.min(startX, Math.min(controlX, endX)), Math.min(startY, Math.min(controlY, endY)),
+                    Math.max(startX, Math.max(controlX, endX)), Math.max(startY, Math.max(controlY, endY)));
+        }
+        applyPaint(drawPath);
+        return true;
+    }
+
+    /**
+     * Builds the Path object for a predicted tail, ready to be drawn by drawPrepared(). The tail continues
+     * from the end of the last curve drawn for the stroke as if the predicted point were the next point
+     * and the stroke then ended there.
+     * @param drawPath - the stroke being drawn.
+     * @param predictedX - the x-ordinate of the predicted point.
+     * @param predictedY - the y-ordinate of the predicted point.
+     * @param bounds - set to the bounding box of the tail's points.
+     * @return boolean - whether there is anything to draw.
+     */
+    public boolean prepareTail(DrawPath drawPath, float predictedX, float predictedY, RectF bounds)
+    {
+        StrokePoints points = drawPath.getResidentPoints();
+        if (points == null)
+            return false;
+        int last = points.size() - 1;
+        if (last < 0)
+            return false;
+        float startX = points.getX(0);
+        float startY = points.getY(0);
+        if (last > 0)
+        {
+            startX = (points.getX(last) + points.getX(last - 1)) / 2;
+            startY = (points.getY(last) + points.getY(last - 1)) / 2;
+        }
+        float controlX = points.getX(last);
+        float controlY = points.getY(last);
+        float endX = (predictedX + controlX) / 2;
+        float endY = (predictedY + controlY) / 2;
+
+        path.rewind();
+        path.moveTo(startX, startY);
+        path.quadTo(controlX, controlY, endX, endY);
+        path.lineTo(predictedX, predictedY);
+        bounds.set(Math.min(Math.min(startX, controlX), predictedX), Math.min(Math.min(startY, controlY), predictedY),
+                Math.max(Math.max(startX, controlX), predictedX), Math.max(Math.max(startY, controlY), predictedY));
+        applyPaint(drawPath);
+        return true;
+    }
+
+    /**
+     * Draws the most recently prepared Path object onto a canvas.
+     * @param canvas - the canvas to draw on.
+     */
+    public void drawPrepared(Canvas canvas)
+    {
+        canvas.drawPath(path, paint);
+    }
+
+    /**
+     * Sets the paint object attributes for a given DrawPath object.
+     * @param drawPath - the DrawPath object about to be drawn.
+     */
+    private void applyPaint(DrawPath drawPath)
+    {
+        paint.setColor(drawPath.getColour());
+        paint.setStrokeWidth(drawPath.getWidth());
+        paint.setMaskFilter(null);
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.simplepaintapp;
+
+import java.util.Arrays;
+
+/**
+ * Class which removes nearly collinear points from a committed stroke using the Ramer-Douglas-Peucker
+ * algorithm, and keeps statistics on how many points were removed.
+ *
+ * A stroke is drawn live from all of its points and only simplified once it is committed, so replays
+ * must draw the same curve to within half a pixel or they leave seams. The neighbours of every point
+ * kept at a corner are kept too, as the curve rounding a corner reaches half-way to its neighbours,
+ * and with the default tolerance the smoothed curves then stay within half a pixel of each other.
+ */
+public class StrokeSimplifier
+{
+    public static final float DEFAULT_TOLERANCE = 0.25f;
+
+    private float tolerance;
+
+    private boolean[] keep;
+    private int[] stack;
+
+    private long strokeCount;
+    private long pointsIn;
+    private long pointsRemoved;
+    private int lastPointsRemoved;
+
+    /**
+     * Constructor which sets the error tolerance.
+     * @param tolerance - the furthest, in pixels, a removed point may lie from the simplified stroke.
+     */
+    public StrokeSimplifier(float tolerance)
+    {
+        this.tolerance = Math.max(0, tolerance);
+        keep = new boolean[0];
+        stack = new int[0];
+    }
+
+    /**
+     * Sets the error tolerance. A tolerance of zero disables simplification.
+     * @param tolerance - the furthest, in pixels, a removed point may lie from the simplified stroke.
+     */
+    public void setTolerance(float tolerance)
+    {
+        this.tolerance = Math.max(0, tolerance);
+    }
+
+    /**
+     * Returns the error tolerance.
+     * @return tolerance - the error tolerance in pixels.
+     */
+    public float getTolerance()
+    {
+        return tolerance;
+    }
+
+    /**
+     * Simplifies the points of a stroke in place. The first and last points are always kept.
+     * @param points - the points of the stroke.
+     * @return int - the number of points removed.
+     */
+    public int simplify(StrokePoints points)
+    {
+        int size = points.size();
+        strokeCount++;
+        pointsIn += size;
+        lastPointsRemoved = 0;
+        if (tolerance <= 0 || size < 3)
+            return 0;
+        // every range on the stack has at least one point inside it, so at most size ranges are held
+        if (keep.length < size)
+        {
+            keep = new boolean[size];
+            stack = new int[size * 2];
+        }
+        Arrays.fill(keep, 0, size, false);
+        keep[0] = true;
+        keep[size - 1] = true;
+
+        // the stack doubles as the list of points kept at corners, which is at most every point
+        float toleranceSquared = tolerance * tolerance;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = size - 1;
+        while (top > 0)
+        {
+            int last = stack[--top];
+            int first = stack[--top];
+            // find the point furthest from the line between the first and last points of the range
+            int furthest = -1;
+            float furthestDistance = toleranceSquared;
+            for (int i = first + 1; i < last; i++)
+            {
+                float distance = distanceSquared(points, i, first, last);
+                if (distance > furthestDistance)
+                {
+                    furthest = i;
+                    furthestDistance = distance;
+                }
+            }
+            // if it lies outside the tolerance, keep it and simplify either side of it
+            if (furthest >= 0)
+            {
+                keep[furthest] = true;
+                if (furthest - first > 1)
+                {
+                    stack[top++] = first;
+                    stack[top++] = furthest;
+                }
+                if (last - furthest > 1)
+                {
+                    stack[top++] = furthest;
+                    stack[top++] = last;
+                }
+            }
+        }
+        // keep the neighbours of each corner, so the curve rounding it is drawn exactly as it was live
+        int corners = 0;
+        for (int i = 1; i < size - 1; i++)
+        {
+            if (keep[i])
+                stack[corners++] = i;
+        }
+        for (int i = 0; i < corners; i++)
+        {
+            keep[stack[i] - 1] = true;
+            keep[stack[i] + 1] = true;
+        }
+        lastPointsRemoved = points.retain(keep);
+        pointsRemoved += lastPointsRemoved;
+        return lastPointsRemoved;
+    }
+
+    /**
+     * Returns the number of strokes which have been simplified.
+     * @return strokeCount - the number of strokes.
+     */
+    public long getStrokeCount()
+    {
+        return strokeCount;
+    }
+
+    /**
+     * Returns the total number of points in the strokes before they were simplified.
+     * @return pointsIn - the number of points.
+     */
+    public long getPointsIn()
+    {
+        return pointsIn;
+    }
+
+    /**
+     * Returns the total number of points which have been removed.
+     * @return pointsRemoved - the number of points.
+     */
+    public long getPointsRemoved()
+    {
+        return pointsRemoved;
+    }
+
+    /**
+     * Returns the number of points removed from the most recently simplified stroke.
+     * @return lastPointsRemoved - the number of points.
+     */
+    public int getLastPointsRemoved()
+    {
+        return lastPointsRemoved;
+    }
+
+    /**
+     * Resets the statistics on how many points were removed.
+     */
+    public void resetStats()
+    {
+        strokeCount = 0;
+        pointsIn = 0;
+        pointsRemoved = 0;
+        lastPointsRemoved = 0;
+    }
+
+    /**
+     * Returns the squared distance from a point to the line segment between two other points.
+     * @param points - the points of the stroke.
+     * @param index - the index of the point.
+     * @param start - the index of the start of the line segment.
+     * @param end - the index of the end of the line segment.
+     * @return float - the squared distance.
+     */
+    private static float distanceSquared(StrokePoints points, int index, int start, int end)
+    {
+        float x = points.getX(index);
+        float y = points.getY(index);
+        float startX = points.getX(start);
+        float startY = points.getY(start);
+        float dx = points.getX(end) - startX;
+        float dy = points.getY(end) - startY;
+        float lengthSquared = dx * dx + dy * dy;
+        // project the point onto the segment, clamping to its ends
+        float t = 0;
+        if (lengthSquared > 0)
+            t = Math.max(0, Math.min(1, ((x - startX) * dx + (y - startY) * dy) / lengthSquared));
+        float distanceX = x - (startX + t * dx);
+        float distanceY = y - (startY + t * dy);
+        return distanceX * distanceX + distanceY * distanceY;
+    }
+}
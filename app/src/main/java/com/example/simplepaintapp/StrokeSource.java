@@ -0,0 +1,18 @@
+package com.example.simplepaintapp;
+
+import java.io.IOException;
+
+/**
+ * Interface for anywhere the points of a stroke can be paged back in from once they have been
+ * released from memory.
+ */
+public interface StrokeSource
+{
+    /**
+     * Loads the points of a stroke.
+     * @param handle - the handle which was returned when the stroke was stored.
+     * @return StrokePoints - the points of the stroke.
+     * @throws IOException - if the points could not be read.
+     */
+    StrokePoints load(long handle) throws IOException;
+}
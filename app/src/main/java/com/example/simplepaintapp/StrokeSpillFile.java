@@ -0,0 +1,256 @@
+package com.example.simplepaintapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Class which appends the points of strokes to a file on disk, so that they can be released from
+ * memory and read back in if they are needed again. Each record holds the number of points, whether
+ * times are held, the time of the first point, and then the x, y and time arrays, followed in the spill
+ * file by a checksum of the record so that a stale handle is caught rather than read as another stroke.
+ */
+public class StrokeSpillFile implements StrokeSource
+{
+    static final int HEADER_BYTES = 4 + 1 + 8;
+
+    private static final int CHECKSUM_BYTES = 4;
+
+    private final File file;
+    private final CRC32 crc;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long length;
+    private int readers;
+    private boolean closing;
+
+    /**
+     * Constructor which sets the file to spill into. The file is not opened until it is written to.
+     * @param file - the spill file.
+     */
+    public StrokeSpillFile(File file)
+    {
+        this.file = file;
+        crc = new CRC32();
+        buffer = ByteBuffer.allocate(4096);
+    }
+
+    /**
+     * Appends the points of a stroke to the file.
+     * @param points - the points to be written.
+     * @return long - the handle to load the points with.
+     * @throws IOException - if the points could not be written.
+     */
+    public synchronized long write(StrokePoints points) throws IOException
+    {
+        int recordBytes = getRecordBytes(points);
+        if (buffer.capacity() < recordBytes + CHECKSUM_BYTES)
+            buffer = ByteBuffer.allocate(recordBytes + CHECKSUM_BYTES);
+        buffer.clear();
+        putRecord(buffer, points);
+        crc.reset();
+        crc.update(buffer.array(), 0, recordBytes);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        long handle = length;
+        FileChannel channel = open();
+        while (buffer.hasRemaining())
+            length += channel.write(buffer, length);
+        return handle;
+    }
+
+    /**
+     * Reads the points of a stroke back from the file.
+     * @param handle - the handle which was returned when the points were written.
+     * @return StrokePoints - the points of the stroke.
+     * @throws IOException - if the points could not be read, or the handle no longer names a record,
+     * such as one from before the file was cleared.
+     */
+    @Override
+    public synchronized StrokePoints load(long handle) throws IOException
+    {
+        if (handle < 0 || handle + HEADER_BYTES + CHECKSUM_BYTES > length)
+            throw new IOException("Spill handle " + handle + " is past the end of the spill file");
+        FileChannel channel = open();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, handle);
+        int size = header.getInt();
+        boolean withTimes = header.get() != 0;
+        long recordBytes = HEADER_BYTES + (long) size * (withTimes ? 12 : 8);
+        if (size < 0 || handle + recordBytes + CHECKSUM_BYTES > length)
+            throw new IOException("Spill record at " + handle + " is corrupt");
+
+        ByteBuffer record = ByteBuffer.allocate((int) recordBytes + CHECKSUM_BYTES);
+        readFully(channel, record, handle);
+        crc.reset();
+        crc.update(record.array(), 0, (int) recordBytes);
+        if ((int) crc.getValue() != record.getInt((int) recordBytes))
+            throw new IOException("Spill record at " + handle + " is corrupt");
+        record.limit((int) recordBytes);
+        return getRecord(record);
+    }
+
+    /**
+     * Returns the number of bytes taken up by the record of a stroke's points.
+     * @param points - the points of the stroke.
+     * @return int - the size of the record in bytes.
+     */
+    static int getRecordBytes(StrokePoints points)
+    {
+        return HEADER_BYTES + points.size() * (points.hasTimes() ? 12 : 8);
+    }
+
+    /**
+     * Writes the record of a stroke's points into a buffer at its current position.
+     * @param buffer - the buffer to write into, which must have room for the record.
+     * @param points - the points of the stroke.
+     */
+    static void putRecord(ByteBuffer buffer, StrokePoints points)
+    {
+        int size = points.size();
+        boolean withTimes = points.hasTimes();
+        buffer.putInt(size);
+        buffer.put((byte) (withTimes ? 1 : 0));
+        buffer.putLong(size > 0 ? points.getTime(0) : 0);
+        for (int i = 0; i < size; i++)
+            buffer.putFloat(points.getX(i));
+        for (int i = 0; i < size; i++)
+            buffer.putFloat(points.getY(i));
+        if (withTimes)
+        {
+            for (int i = 0; i < size; i++)
+                buffer.putInt((int) (points.getTime(i) - points.getTime(0)));
+        }
+    }
+
+    /**
+     * Reads the record of a stroke's points from a buffer at its current position.
+     * @param buffer - the buffer to read from.
+     * @return StrokePoints - the points of the stroke.
+     * @throws IOException - if the record is corrupt or runs past the end of the buffer.
+     */
+    static StrokePoints getRecord(ByteBuffer buffer) throws IOException
+    {
+        int start = buffer.position();
+        if (buffer.remaining() < HEADER_BYTES)
+            throw new IOException("Stroke record is truncated");
+        int size = buffer.getInt();
+        boolean withTimes = buffer.get() != 0;
+        long startTime = buffer.getLong();
+        if (size < 0 || (long) size * (withTimes ? 12 : 8) > buffer.remaining())
+            throw new IOException("Stroke record is truncated");
+
+        int data = start + HEADER_BYTES;
+        StrokePoints points = new StrokePoints(size, withTimes);
+        for (int i = 0; i < size; i++)
+        {
+            long time = withTimes ? startTime + buffer.getInt(data + (2 * size + i) * 4) : 0;
+            points.add(buffer.getFloat(data + i * 4), buffer.getFloat(data + (size + i) * 4), time);
+        }
+        buffer.position(data + size * (withTimes ? 12 : 8));
+        return points;
+    }
+
+    /**
+     * Returns the number of bytes written to the file.
+     * @return length - the length of the file.
+     */
+    public synchronized long getLength()
+    {
+        return length;
+    }
+
+    /**
+     * Keeps every record written so far readable until release() is called, even if the file is cleared
+     * or closed in the meantime, such as while strokes are read on another thread.
+     */
+    public synchronized void retain()
+    {
+        readers++;
+    }
+
+    /**
+     * Stops keeping the records readable for a caller of retain(), finishing a close which was put off
+     * until now.
+     * @throws IOException - if the file could not be closed.
+     */
+    public synchronized void release() throws IOException
+    {
+        readers--;
+        if (readers == 0 && closing)
+            close();
+    }
+
+    /**
+     * Empties the file, invalidating every handle. While the records are retained they are kept, and
+     * later records are written after them.
+     * @throws IOException - if the file could not be truncated.
+     */
+    public synchronized void clear() throws IOException
+    {
+        if (readers > 0)
+            return;
+        if (channel != null)
+            channel.truncate(0);
+        length = 0;
+    }
+
+    /**
+     * Closes and deletes the file, or does so once the records are no longer retained.
+     * @throws IOException - if the file could not be closed.
+     */
+    public synchronized void close() throws IOException
+    {
+        if (readers > 0)
+        {
+            closing = true;
+            return;
+        }
+        closing = false;
+        if (channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+        length = 0;
+        file.delete();
+    }
+
+    /**
+     * Opens the file if it is not already open, discarding anything left from a previous session.
+     * @return FileChannel - the channel of the file.
+     * @throws IOException - if the file could not be opened.
+     */
+    private FileChannel open() throws IOException
+    {
+        if (channel == null)
+        {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            channel.truncate(0);
+        }
+        return channel;
+    }
+
+    /**
+     * Reads from a channel until a buffer is full, then flips it.
+     * @param channel - the channel to read from.
+     * @param buffer - the buffer to read into.
+     * @param position - the position in the file to start reading from.
+     * @throws IOException - if the end of the file is reached first.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of spill file");
+            position += read;
+        }
+        buffer.flip();
+    }
+}
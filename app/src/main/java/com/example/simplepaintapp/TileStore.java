@@ -0,0 +1,478 @@
+package com.example.simplepaintapp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+/**
+ * Class which holds the drawing as a grid of tiles. A tile's bitmap is only allocated once a stroke is
+ * drawn over it, so empty areas of the canvas cost no memory. Each tile is flagged as dirty when it
+ * changes, until the tiles are next marked as clean. Snapshots share the tile bitmaps, which are only
+ * copied when next drawn on.
+ */
+public class TileStore
+{
+    public static final int TILE_SIZE = 256;
+
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+
+    private final Bitmap[] tiles;
+    private final boolean[] dirty;
+    private final boolean[] shared;
+    private final Canvas tileCanvas;
+
+    /**
+     * Constructor which sets up an empty grid of tiles covering a given area.
+     * @param width - the width of the area.
+     * @param height - the height of the area.
+     */
+    public TileStore(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new Bitmap[columns * rows];
+        dirty = new boolean[columns * rows];
+        shared = new boolean[columns * rows];
+        tileCanvas = new Canvas();
+    }
+
+    /**
+     * Returns the width of the area covered by the tiles.
+     * @return width - the width.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Returns the height of the area covered by the tiles.
+     * @return height - the height.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Returns the number of tiles in the grid, whether allocated or not.
+     * @return int - the number of tiles.
+     */
+    public int getTileCount()
+    {
+        return tiles.length;
+    }
+
+    /**
+     * Returns the bitmap of a tile.
+     * @param index - the index of the tile.
+     * @return Bitmap - the bitmap, or null if the tile is empty.
+     */
+    public Bitmap getTile(int index)
+    {
+        return tiles[index];
+    }
+
+    /**
+     * Returns the bitmap of a tile to be drawn on, allocating it if the tile is empty, or copying it
+     * if it is shared with a snapshot.
+     * @param index - the index of the tile.
+     * @return Bitmap - the bitmap.
+     */
+    public Bitmap obtainTile(int index)
+    {
+        if (shared[index])
+        {
+            // leave the snapshot with the original pixels
+            tiles[index] = tiles[index].copy(Bitmap.Config.ARGB_8888, true);
+            shared[index] = false;
+        } else if (tiles[index] == null)
+        {
+            // tiles along the right and bottom edges only cover what is left of the area
+            int left = getTileLeft(index);
+            int top = getTileTop(index);
+            tiles[index] = Bitmap.createBitmap(Math.min(TILE_SIZE, width - left),
+                    Math.min(TILE_SIZE, height - top), Bitmap.Config.ARGB_8888);
+        }
+        dirty[index] = true;
+        return tiles[index];
+    }
+
+    /**
+     * Returns the x-ordinate of the left edge of a tile.
+     * @param index - the index of the tile.
+     * @return int - the left edge.
+     */
+    public int getTileLeft(int index)
+    {
+        return (index % columns) * TILE_SIZE;
+    }
+
+    /**
+     * Returns the y-ordinate of the top edge of a tile.
+     * @param index - the index of the tile.
+     * @return int - the top edge.
+     */
+    public int getTileTop(int index)
+    {
+        return (index / columns) * TILE_SIZE;
+    }
+
+    /**
+     * Returns whether a tile has changed since the tiles were last marked as clean.
+     * @param index - the index of the tile.
+     * @return boolean - whether the tile is dirty.
+     */
+    public boolean isDirty(int index)
+    {
+        return dirty[index];
+    }
+
+    /**
+     * Marks every tile as clean.
+     */
+    public void markClean()
+    {
+        for (int i = 0; i < dirty.length; i++)
+            dirty[i] = false;
+    }
+
+    /**
+     * Returns the number of tiles which have been allocated.
+     * @return int - the number of allocated tiles.
+     */
+    public int getAllocatedCount()
+    {
+        int count = 0;
+        for (Bitmap tile : tiles)
+        {
+            if (tile != null)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes held by the allocated tiles.
+     * @return long - the memory usage in bytes.
+     */
+    public long getMemoryUsage()
+    {
+        long bytes = 0;
+        for (Bitmap tile : tiles)
+        {
+            if (tile != null)
+                bytes += tile.getByteCount();
+        }
+        return bytes;
+    }
+
+    /**
+     * Draws the path prepared by a renderer onto every tile which overlaps a given area.
+     * @param renderer - the renderer holding the prepared path.
+     * @param area - the area covered by the path.
+     */
+    public void draw(StrokeRenderer renderer, Rect area)
+    {
+        draw(renderer, area, null);
+    }
+
+    /**
+     * Draws the path prepared by a renderer onto every tile which overlaps a given area, only changing
+     * the pixels within a clip rectangle.
+     * @param renderer - the renderer holding the prepared path.
+     * @param area - the area covered by the path.
+     * @param clip - the area which may be drawn on, or null to draw the whole path.
+     */
+    public void draw(StrokeRenderer renderer, Rect area, Rect clip)
+    {
+        if (isOutside(area))
+            return;
+        int firstColumn = getFirstColumn(area);
+        int lastColumn = getLastColumn(area);
+        for (int row = getFirstRow(area); row <= getLastRow(area); row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int index = row * columns + column;
+                // draw in the coordinates of the canvas by moving the tile's origin
+                tileCanvas.setBitmap(obtainTile(index));
+                int count = tileCanvas.save();
+                tileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+                if (clip != null)
+                    tileCanvas.clipRect(clip);
+                renderer.drawPrepared(tileCanvas);
+                tileCanvas.restoreToCount(count);
+            }
+        }
+        tileCanvas.setBitmap(null);
+    }
+
+    /**
+     * Erases the pixels within a given area, leaving the background clear. Empty tiles are left empty.
+     * @param area - the area to be erased.
+     */
+    public void clearArea(Rect area)
+    {
+        if (isOutside(area))
+            return;
+        int firstColumn = getFirstColumn(area);
+        int lastColumn = getLastColumn(area);
+        for (int row = getFirstRow(area); row <= getLastRow(area); row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int index = row * columns + column;
+                if (tiles[index] == null)
+                    continue;
+                // erase in the coordinates of the canvas by moving the tile's origin
+                tileCanvas.setBitmap(obtainTile(index));
+                int count = tileCanvas.save();
+                tileCanvas.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+                tileCanvas.clipRect(area);
+                tileCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                tileCanvas.restoreToCount(count);
+            }
+        }
+        tileCanvas.setBitmap(null);
+    }
+
+    /**
+     * Replaces the pixels within a given area with those of a snapshot of another tile store covering the
+     * same area, such as a base layer. Tiles which are empty in both are left empty, and tiles which are
+     * wholly within the area and empty in the snapshot are freed.
+     * @param source - the snapshot to copy from.
+     * @param area - the area to be copied.
+     */
+    public void copyFrom(Snapshot source, Rect area)
+    {
+        if (isOutside(area))
+            return;
+        int firstColumn = getFirstColumn(area);
+        int lastColumn = getLastColumn(area);
+        for (int row = getFirstRow(area); row <= getLastRow(area); row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                int index = row * columns + column;
+                Bitmap from = source.tiles[index];
+                if (tiles[index] == null && from == null)
+                    continue;
+                int left = column * TILE_SIZE;
+                int top = row * TILE_SIZE;
+                if (from == null && area.contains(left, top, Math.min(left + TILE_SIZE, width),
+                        Math.min(top + TILE_SIZE, height)))
+                {
+                    clearTile(index);
+                    continue;
+                }
+                // copy in the coordinates of the canvas by moving the tile's origin, replacing the pixels
+                // rather than blending over them
+                tileCanvas.setBitmap(obtainTile(index));
+                int count = tileCanvas.save();
+                tileCanvas.translate(-left, -top);
+                tileCanvas.clipRect(area);
+                tileCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                if (from != null)
+                    tileCanvas.drawBitmap(from, left, top, null);
+                tileCanvas.restoreToCount(count);
+            }
+        }
+        tileCanvas.setBitmap(null);
+    }
+
+    /**
+     * Draws the allocated tiles which overlap a given area onto a canvas.
+     * @param canvas - the canvas to draw on.
+     * @param area - the area to be drawn.
+     */
+    public void drawTo(Canvas canvas, Rect area)
+    {
+        if (isOutside(area))
+            return;
+        int firstColumn = getFirstColumn(area);
+        int lastColumn = getLastColumn(area);
+        for (int row = getFirstRow(area); row <= getLastRow(area); row++)
+        {
+            for (int column = firstColumn; column <= lastColumn; column++)
+            {
+                Bitmap tile = tiles[row * columns + column];
+                if (tile != null)
+                    canvas.drawBitmap(tile, column * TILE_SIZE, row * TILE_SIZE, null);
+            }
+        }
+    }
+
+    /**
+     * Frees a single tile, leaving it empty.
+     * @param index - the index of the tile.
+     */
+    public void clearTile(int index)
+    {
+        if (tiles[index] != null)
+        {
+            // a snapshot may still be reading a shared tile, so leave it to be garbage collected
+            if (!shared[index])
+                tiles[index].recycle();
+            tiles[index] = null;
+            shared[index] = false;
+            dirty[index] = true;
+        }
+    }
+
+    /**
+     * Frees every tile, leaving the whole area empty.
+     */
+    public void clear()
+    {
+        for (int i = 0; i < tiles.length; i++)
+            clearTile(i);
+    }
+
+    /**
+     * Returns a new bitmap of the whole area, made up of the allocated tiles.
+     * @return Bitmap - the bitmap of the drawing.
+     */
+    public Bitmap toBitmap()
+    {
+        return compose(tiles, columns, width, height);
+    }
+
+    /**
+     * Returns a copy-on-write snapshot of the tiles. Taking the snapshot copies no pixels; instead each
+     * shared tile is copied the next time it is drawn on, so the snapshot can be read on another thread.
+     * @param generation - the content generation of the drawing held by the tiles.
+     * @return Snapshot - the snapshot of the tiles.
+     */
+    public Snapshot snapshot(long generation)
+    {
+        for (int i = 0; i < tiles.length; i++)
+            shared[i] = tiles[i] != null;
+        return new Snapshot(tiles.clone(), columns, width, height, generation);
+    }
+
+    /**
+     * Returns whether an area lies wholly outside the tiles, or is empty.
+     * @param area - the area.
+     * @return boolean - whether no tile overlaps the area.
+     */
+    private boolean isOutside(Rect area)
+    {
+        return area.right <= 0 || area.bottom <= 0 || area.left >= width || area.top >= height
+                || area.left >= area.right || area.top >= area.bottom;
+    }
+
+    /**
+     * Returns the first column of tiles which overlaps an area.
+     * @param area - the area, which must not lie outside the tiles.
+     * @return int - the column.
+     */
+    private int getFirstColumn(Rect area)
+    {
+        return Math.max(0, area.left / TILE_SIZE);
+    }
+
+    /**
+     * Returns the last column of tiles which overlaps an area.
+     * @param area - the area, which must not lie outside the tiles.
+     * @return int - the column.
+     */
+    private int getLastColumn(Rect area)
+    {
+        return Math.min(columns - 1, (area.right - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Returns the first row of tiles which overlaps an area.
+     * @param area - the area, which must not lie outside the tiles.
+     * @return int - the row.
+     */
+    private int getFirstRow(Rect area)
+    {
+        return Math.max(0, area.top / TILE_SIZE);
+    }
+
+    /**
+     * Returns the last row of tiles which overlaps an area.
+     * @param area - the area, which must not lie outside the tiles.
+     * @return int - the row.
+     */
+    private int getLastRow(Rect area)
+    {
+        return Math.min(rows - 1, (area.bottom - 1) / TILE_SIZE);
+    }
+
+    /**
+     * Draws a grid of tiles onto a new bitmap.
+     * @param tiles - the tile bitmaps, null where a tile is empty.
+     * @param columns - the number of columns in the grid.
+     * @param width - the width of the area.
+     * @param height - the height of the area.
+     * @return Bitmap - the bitmap of the drawing.
+     */
+    private static Bitmap compose(Bitmap[] tiles, int columns, int width, int height)
+    {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        for (int i = 0; i < tiles.length; i++)
+        {
+            if (tiles[i] != null)
+                canvas.drawBitmap(tiles[i], (i % columns) * TILE_SIZE, (i / columns) * TILE_SIZE, null);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Class which holds the tile bitmaps as they were when a snapshot was taken.
+     */
+    public static class Snapshot
+    {
+        private final Bitmap[] tiles;
+        private final int columns;
+        private final int width;
+        private final int height;
+        private final long generation;
+
+        /**
+         * Constructor for the Snapshot class.
+         * @param tiles - the tile bitmaps, null where a tile is empty.
+         * @param columns - the number of columns in the grid.
+         * @param width - the width of the area.
+         * @param height - the height of the area.
+         * @param generation - the content generation of the drawing held by the tiles.
+         */
+        private Snapshot(Bitmap[] tiles, int columns, int width, int height, long generation)
+        {
+            this.tiles = tiles;
+            this.columns = columns;
+            this.width = width;
+            this.height = height;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns the content generation of the drawing held by the snapshot.
+         * @return generation - the content generation.
+         */
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        /**
+         * Returns a new bitmap of the whole area, made up of the tiles in the snapshot.
+         * @return Bitmap - the bitmap of the drawing.
+         */
+        public Bitmap toBitmap()
+        {
+            return compose(tiles, columns, width, height);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.simplepaintapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class which passes touch samples from one thread to another without locking, such as from the UI
+ * thread, which receives the touch events, to the render thread, which draws them. The samples are
+ * kept in a ring of primitive arrays which is allocated once, so neither offering nor polling a
+ * sample allocates anything.
+ *
+ * Only one thread may offer samples and only one thread may poll them at a time. Each side publishes
+ * its position in the ring with an ordered write, and keeps a copy of the other side's position so it
+ * only has to read it again once the ring appears full or empty.
+ */
+public class TouchSampleQueue
+{
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int[] pointerIds;
+    private final float[] xs;
+    private final float[] ys;
+    private final long[] times;
+    private final int[] actions;
+    private final int mask;
+
+    // the position of the next sample to be polled, written only by the consumer
+    private final AtomicLong head;
+    // the position of the next sample to be offered, written only by the producer
+    private final AtomicLong tail;
+    private long cachedHead;
+    private long cachedTail;
+
+    private int pointerId;
+    private float x;
+    private float y;
+    private long time;
+    private int action;
+
+    /**
+     * Constructor which allocates the ring.
+     * @param capacity - the number of samples which can be waiting at once, rounded up to a power of two.
+     */
+    public TouchSampleQueue(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        pointerIds = new int[size];
+        xs = new float[size];
+        ys = new float[size];
+        times = new long[size];
+        actions = new int[size];
+        mask = size - 1;
+        head = new AtomicLong();
+        tail = new AtomicLong();
+    }
+
+    /**
+     * Returns the number of samples which can be waiting at once.
+     * @return int - the capacity of the ring.
+     */
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Adds a sample to the queue. This must only be called by the producing thread.
+     * @param pointerId - the id of the pointer the sample belongs to.
+     * @param x - the x-ordinate of the sample.
+     * @param y - the y-ordinate of the sample.
+     * @param time - the time of the sample.
+     * @param action - the action of the sample.
+     * @return boolean - false if the queue was full, in which case the sample was not added.
+     */
+    public boolean offer(int pointerId, float x, float y, long time, int action)
+    {
+        long position = tail.get();
+        if (position - cachedHead > mask)
+        {
+            // the ring looked full, so check how far the consumer has really got
+            cachedHead = head.get();
+            if (position - cachedHead > mask)
+                return false;
+        }
+        int index = (int) position & mask;
+        pointerIds[index] = pointerId;
+        xs[index] = x;
+        ys[index] = y;
+        times[index] = time;
+        actions[index] = action;
+        // the sample is written before the new tail is published, so the consumer never reads it early
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    /**
+     * Takes the oldest sample from the queue, which is then read with getPointerId(), getX(), getY(),
+     * getTime() and getAction(). This must only be called by the consuming thread.
+     * @return boolean - false if the queue was empty.
+     */
+    public boolean poll()
+    {
+        long position = head.get();
+        if (position >= cachedTail)
+        {
+            cachedTail = tail.get();
+            if (position >= cachedTail)
+                return false;
+        }
+        int index = (int) position & mask;
+        pointerId = pointerIds[index];
+        x = xs[index];
+        y = ys[index];
+        time = times[index];
+        action = actions[index];
+        // the sample is read before its slot is handed back to the producer
+        head.lazySet(position + 1);
+        return true;
+    }
+
+    /**
+     * Returns whether there are no samples waiting. This is exact on the consuming thread, and may be
+     * out of date on any other.
+     * @return boolean - whether the queue is empty.
+     */
+    public boolean isEmpty()
+    {
+        return head.get() >= tail.get();
+    }
+
+    /**
+     * Returns the pointer id of the last sample polled.
+     * @return pointerId - the pointer id.
+     */
+    public int getPointerId()
+    {
+        return pointerId;
+    }
+
+    /**
+     * Returns the x-ordinate of the last sample polled.
+     * @return x - the x-ordinate.
+     */
+    public float getX()
+    {
+        return x;
+    }
+
+    /**
+     * Returns the y-ordinate of the last sample polled.
+     * @return y - the y-ordinate.
+     */
+    public float getY()
+    {
+        return y;
+    }
+
+    /**
+     * Returns the time of the last sample polled.
+     * @return time - the time.
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Returns the action of the last sample polled.
+     * @return action - the action.
+     */
+    public int getAction()
+    {
+        return action;
+    }
+}
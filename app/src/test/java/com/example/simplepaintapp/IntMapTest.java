@@ -0,0 +1,65 @@
+package com.example.simplepaintapp;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the IntMap, which run on the development machine.
+ */
+public class IntMapTest
+{
+    @Test
+    public void keys_arePutAndRemoved()
+    {
+        IntMap<String> map = new IntMap<>(4);
+        assertNull(map.get(3));
+        assertNull(map.put(3, "three"));
+        assertNull(map.put(-1, "minus one"));
+        assertEquals("three", map.put(3, "THREE"));
+        assertEquals(2, map.size());
+        assertEquals("THREE", map.get(3));
+        assertEquals("minus one", map.remove(-1));
+        assertNull(map.remove(-1));
+        assertNull(map.get(-1));
+        assertEquals(1, map.size());
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(3));
+    }
+
+    @Test
+    public void manyKeys_growTheTable()
+    {
+        IntMap<Integer> map = new IntMap<>(2);
+        for (int i = 0; i < 1000; i++)
+            map.put(i * 31, i);
+        assertEquals(1000, map.size());
+        for (int i = 0; i < 1000; i++)
+            assertEquals(Integer.valueOf(i), map.get(i * 31));
+        assertNull(map.get(1));
+    }
+
+    @Test
+    public void randomOperations_matchHashMap()
+    {
+        // a narrow range of keys makes the runs of colliding keys long, which exercises removal
+        Random random = new Random(42);
+        IntMap<Integer> map = new IntMap<>();
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++)
+        {
+            int key = random.nextInt(64) - 32;
+            if (random.nextBoolean())
+                assertEquals(expected.put(key, i), map.put(key, i));
+            else
+                assertEquals(expected.remove(key), map.remove(key));
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -32; key < 32; key++)
+            assertEquals(expected.get(key), map.get(key));
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.simplepaintapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the LatencyHistogram, which run on the development machine.
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void smallValues_areExact()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100; value++)
+            histogram.record(value);
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0);
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void largeValues_areWithinPrecision()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // a thousand durations from 1ms to 1s
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(i * 1000L * 1000);
+        long p90 = histogram.getValueAtPercentile(90);
+        assertTrue("p90 was " + p90, Math.abs(p90 - 900L * 1000 * 1000) <= 900L * 1000 * 1000 / 64);
+        assertEquals(1000L * 1000 * 1000, histogram.getMax());
+        assertEquals(1000L * 1000 * 1000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getMax());
+    }
+
+    @Test
+    public void reset_removesEveryValue()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(12345);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+    }
+}
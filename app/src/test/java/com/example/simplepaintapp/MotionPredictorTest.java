@@ -0,0 +1,57 @@
+package com.example.simplepaintapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the MotionPredictor, which run on the development machine.
+ */
+public class MotionPredictorTest
+{
+    @Test
+    public void constantVelocity_isPredictedExactly()
+    {
+        MotionPredictor predictor = new MotionPredictor(16);
+        for (int i = 0; i < 10; i++)
+            predictor.add(i * 4, i * 2, i * 8);
+        assertTrue(predictor.predict());
+        // two samples ahead of the last at (36, 18)
+        assertEquals(44, predictor.getPredictedX(), 0.01);
+        assertEquals(22, predictor.getPredictedY(), 0.01);
+    }
+
+    @Test
+    public void stoppedPen_isNotPredictedPastIt()
+    {
+        MotionPredictor predictor = new MotionPredictor(16);
+        for (int i = 0; i < 6; i++)
+            predictor.add(100, 100, i * 8);
+        assertTrue(predictor.predict());
+        assertEquals(100, predictor.getPredictedX(), 0);
+        assertEquals(100, predictor.getPredictedY(), 0);
+        // and a pen which has not moved for a while can't be predicted at all
+        predictor.reset();
+        predictor.add(100, 100, 0);
+        predictor.add(110, 100, 200);
+        assertFalse(predictor.predict());
+    }
+
+    @Test
+    public void predictions_areCheckedAgainstLaterSamples()
+    {
+        MotionPredictor predictor = new MotionPredictor(16);
+        for (int i = 0; i < 5; i++)
+            predictor.add(i * 4, 0, i * 8);
+        assertTrue(predictor.predict());
+        // the pen stops dead rather than carrying on to x=24 at the predicted time
+        predictor.add(16, 0, 40);
+        assertEquals(0, predictor.getPredictionCount());
+        predictor.add(16, 0, 48);
+        assertEquals(1, predictor.getPredictionCount());
+        assertEquals(8, predictor.getMeanError(), 0.01);
+        assertEquals(8, predictor.getMaxError(), 0.01);
+        predictor.resetStatistics();
+        assertEquals(0, predictor.getPredictionCount());
+    }
+}
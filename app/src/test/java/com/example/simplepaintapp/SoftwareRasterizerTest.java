@@ -0,0 +1,103 @@
+package com.example.simplepaintapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the SoftwareRasterizer, which run on the development machine.
+ */
+public class SoftwareRasterizerTest
+{
+    private static final int RED = 0xffff0000;
+    private static final int BLUE = 0xff0000ff;
+
+    /**
+     * Creates a set of points without times.
+     * @param coordinates - the x and y-ordinates of each point in turn.
+     * @return StrokePoints - the points.
+     */
+    private static StrokePoints points(float... coordinates)
+    {
+        StrokePoints points = new StrokePoints(false);
+        for (int i = 0; i < coordinates.length; i += 2)
+            points.add(coordinates[i], coordinates[i + 1], 0);
+        return points;
+    }
+
+    @Test
+    public void tap_drawsRoundDot()
+    {
+        SoftwareRasterizer rasterizer = new SoftwareRasterizer(100, 100);
+        rasterizer.drawStroke(points(50.5f, 50.5f), RED, 20);
+        // the centre is fully covered, the edge half covered, and beyond the edge is untouched
+        assertEquals(RED, rasterizer.getPixel(50, 50));
+        assertEquals(RED, rasterizer.getPixel(50, 42));
+        assertEquals(128, rasterizer.getPixel(60, 50) >>> 24, 1);
+        assertEquals(0, rasterizer.getPixel(62, 50));
+        // the corners of the bounding square are outside the round dot
+        assertEquals(0, rasterizer.getPixel(58, 58));
+    }
+
+    @Test
+    public void line_hasRoundCaps()
+    {
+        SoftwareRasterizer rasterizer = new SoftwareRasterizer(100, 40);
+        rasterizer.drawStroke(points(20.5f, 20.5f, 50.5f, 20.5f, 80.5f, 20.5f), RED, 10);
+        for (int x = 20; x <= 80; x++)
+            assertEquals(RED, rasterizer.getPixel(x, 20));
+        // the caps reach half the width past each end, but only along the line
+        assertEquals(RED, rasterizer.getPixel(16, 20));
+        assertEquals(RED, rasterizer.getPixel(84, 20));
+        assertEquals(0, rasterizer.getPixel(16, 16));
+        assertEquals(0, rasterizer.getPixel(20, 27));
+    }
+
+    @Test
+    public void translucentStroke_isNotDarkerWhereItCrossesItself()
+    {
+        SoftwareRasterizer rasterizer = new SoftwareRasterizer(100, 100);
+        // a stroke which doubles back over itself
+        rasterizer.drawStroke(points(10, 50, 90, 50, 10, 50, 90, 50), 0x80ff0000, 10);
+        assertEquals(0x80ff0000, rasterizer.getPixel(50, 50));
+    }
+
+    @Test
+    public void strokes_blendOverEachOther()
+    {
+        SoftwareRasterizer rasterizer = new SoftwareRasterizer(40, 40);
+        rasterizer.clear(RED);
+        rasterizer.drawStroke(points(20.5f, 20.5f), BLUE, 10);
+        assertEquals(BLUE, rasterizer.getPixel(20, 20));
+        assertEquals(RED, rasterizer.getPixel(2, 2));
+
+        rasterizer.drawStroke(points(20.5f, 20.5f), 0x80ff0000, 10);
+        int blended = rasterizer.getPixel(20, 20);
+        assertEquals(0xff, blended >>> 24);
+        assertEquals(128, (blended >> 16) & 0xff, 1);
+        assertEquals(127, blended & 0xff, 1);
+    }
+
+    @Test
+    public void transform_scalesPointsAndWidth()
+    {
+        SoftwareRasterizer rasterizer = new SoftwareRasterizer(100, 100);
+        rasterizer.setTransform(2, 10, 0);
+        rasterizer.drawStroke(points(20.25f, 20.25f), RED, 10);
+        // the dot is centred on (50.5, 40.5) with a radius of 10
+        assertEquals(RED, rasterizer.getPixel(50, 40));
+        assertEquals(RED, rasterizer.getPixel(50, 31));
+        assertEquals(0, rasterizer.getPixel(50, 28));
+        assertEquals(0, rasterizer.getPixel(25, 20));
+    }
+
+    @Test
+    public void stroke_isClippedToTheBuffer()
+    {
+        SoftwareRasterizer rasterizer = new SoftwareRasterizer(20, 20);
+        rasterizer.drawStroke(points(-50, 10, 70, 10), RED, 4);
+        assertEquals(RED, rasterizer.getPixel(0, 10));
+        assertEquals(RED, rasterizer.getPixel(19, 10));
+        assertEquals(0, rasterizer.getPixel(10, 0));
+    }
+}
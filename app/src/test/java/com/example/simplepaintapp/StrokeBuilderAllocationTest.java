@@ -0,0 +1,101 @@
+package com.example.simplepaintapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests which check that drawing a stroke allocates nothing between its first touch and its
+ * last, using the allocation counter of the HotSpot JVM the tests run on.
+ */
+public class StrokeBuilderAllocationTest
+{
+    private static final int SAMPLES = 10000;
+
+    private com.sun.management.ThreadMXBean threads;
+    private StrokeBuilder builder;
+    private StrokeHistory history;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        builder = new StrokeBuilder(new StrokeSimplifier(StrokeSimplifier.DEFAULT_TOLERANCE),
+                StrokeBuilder.DEFAULT_TOUCH_TOLERANCE);
+        history = new StrokeHistory(new StrokeSpillFile(java.io.File.createTempFile("allocation", ".spill")),
+                StrokeHistory.DEFAULT_MEMORY_BUDGET);
+        // the first strokes grow the pooled buffer and the simplifier to the length of the stroke
+        for (int i = 0; i < 3; i++)
+            drawStroke();
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far.
+     * @return long - the number of bytes.
+     */
+    private long allocated()
+    {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Draws a zig-zag stroke of SAMPLES samples, each far enough from the last to be kept.
+     */
+    private void beginAndMove()
+    {
+        history.add(builder.begin(0, 0, 0, 0xff000000, 15));
+        for (int i = 1; i < SAMPLES; i++)
+            builder.add(i * 5 % 1000, (i / 200) * 5 + (i % 2) * 5, i * 8);
+    }
+
+    /**
+     * Draws and finishes a stroke.
+     * @return DrawPath - the finished stroke.
+     */
+    private DrawPath drawStroke()
+    {
+        beginAndMove();
+        return builder.end();
+    }
+
+    @Test
+    public void samples_allocateNothing()
+    {
+        // reading the counter may itself allocate, so measure that first
+        long start = allocated();
+        long overhead = allocated() - start;
+        long before = allocated();
+        beginAndMove();
+        long during = allocated() - before - overhead;
+        builder.end();
+        assertEquals("bytes allocated by the touch down and moves", 0, during);
+    }
+
+    @Test
+    public void finish_allocatesOnlyTheCompactPoints()
+    {
+        beginAndMove();
+        long before = allocated();
+        DrawPath drawPath = builder.end();
+        long finished = allocated() - before;
+        // the exact-size copy of the points, and an empty DrawPath to refill the pool's reserve
+        long expected = drawPath.getResidentPoints().getMemoryFootprint() + 256;
+        assertTrue("finishing allocated " + finished + " bytes", finished <= expected);
+        assertEquals(drawPath.getResidentPoints().size(), drawPath.getResidentPoints().getCapacity());
+    }
+
+    @Test
+    public void finishedStroke_keepsItsPoints()
+    {
+        DrawPath first = drawStroke();
+        DrawPath second = drawStroke();
+        // the buffer is re-used, so the finished strokes must hold copies rather than the buffer itself
+        assertTrue(first.getResidentPoints() != second.getResidentPoints());
+        assertEquals(first.getResidentPoints().getX(1), second.getResidentPoints().getX(1), 0);
+        assertEquals(first.getResidentPoints().size(), second.getResidentPoints().size());
+        assertTrue(first.getResidentPoints().size() > 2);
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.simplepaintapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for baking strokes out of the StrokeHistory, which run on the development machine.
+ */
+public class StrokeHistoryTest
+{
+    private StrokeSpillFile spillFile;
+    private StrokeHistory history;
+    private DrawPath[] strokes;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File spill = File.createTempFile("history", ".spill");
+        spill.deleteOnExit();
+        spillFile = new StrokeSpillFile(spill);
+        history = new StrokeHistory(spillFile, StrokeHistory.DEFAULT_MEMORY_BUDGET);
+        strokes = new DrawPath[5];
+        for (int i = 0; i < strokes.length; i++)
+        {
+            StrokePoints points = new StrokePoints(false);
+            points.add(i, i, 0);
+            strokes[i] = new DrawPath(0, 1, points);
+            history.add(strokes[i]);
+        }
+    }
+
+    @Test
+    public void bakedStrokes_leaveTheUndoList()
+    {
+        List<DrawPath> baked = history.bake(3);
+        assertEquals(3, baked.size());
+        assertSame(strokes[0], baked.get(0));
+        assertSame(strokes[2], baked.get(2));
+        assertEquals(3, history.getBakedCount());
+        assertEquals(2, history.size());
+        assertSame(strokes[3], history.get(0));
+        // only the strokes which were not baked can be undone
+        assertSame(strokes[4], history.undo());
+        assertSame(strokes[3], history.undo());
+        assertNull(history.undo());
+        assertEquals(3, history.getBakedCount());
+    }
+
+    @Test
+    public void timeline_keepsTheBakedStrokesFirst()
+    {
+        history.bake(2);
+        history.undo();
+        List<DrawPath> timeline = history.getTimeline();
+        assertEquals(strokes.length, timeline.size());
+        for (int i = 0; i < strokes.length; i++)
+            assertSame(strokes[i], timeline.get(i));
+        history.clear();
+        assertEquals(0, history.getBakedCount());
+        assertTrue(history.getTimeline().isEmpty());
+    }
+
+    @Test
+    public void memoryUsage_followsStrokesPagedInAndOut() throws IOException
+    {
+        long total = 0;
+        for (DrawPath drawPath : strokes)
+            total += drawPath.getMemoryFootprint();
+        assertEquals(total, history.getMemoryUsage());
+        // page a stroke out and back in, as a replay would, without telling the history
+        long footprint = strokes[1].getMemoryFootprint();
+        strokes[1].pageOut(spillFile, spillFile.write(strokes[1].getPoints()));
+        assertEquals(total - footprint, history.getMemoryUsage());
+        assertEquals(1, history.getSpilledCount());
+        // the points come back in arrays of exactly their size
+        total += strokes[1].getPoints().getMemoryFootprint() - footprint;
+        footprint = strokes[1].getMemoryFootprint();
+        assertEquals(total, history.getMemoryUsage());
+        assertEquals(0, history.getSpilledCount());
+        // the stroke which was paged back in is released first, without being written again
+        history.setMemoryBudget(total - 1);
+        assertFalse(strokes[1].isResident());
+        assertEquals(total - footprint, history.getMemoryUsage());
+        history.clear();
+        assertEquals(0, history.getMemoryUsage());
+        assertEquals(0, history.getSpilledCount());
+    }
+}
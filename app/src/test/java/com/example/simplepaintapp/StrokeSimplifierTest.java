@@ -0,0 +1,162 @@
+package com.example.simplepaintapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the StrokeSimplifier, which run on the development machine.
+ */
+public class StrokeSimplifierTest
+{
+    private static final int CURVE_STEPS = 8;
+
+    /**
+     * Creates a stroke the way touch samples arrive, wandering in steps of at least the touch tolerance
+     * with the odd sharp turn and some jitter.
+     * @param random - the source of the wandering.
+     * @return StrokePoints - the points.
+     */
+    private static StrokePoints wanderingStroke(Random random)
+    {
+        StrokePoints points = new StrokePoints(false);
+        float x = 500;
+        float y = 500;
+        double heading = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < 40; i++)
+        {
+            points.add(x + (random.nextFloat() - 0.5f), y + (random.nextFloat() - 0.5f), 0);
+            heading += random.nextInt(10) == 0 ? random.nextGaussian() * 1.5 : random.nextGaussian() * 0.15;
+            float step = StrokeBuilder.DEFAULT_TOUCH_TOLERANCE + random.nextFloat() * 8;
+            x += (float) Math.cos(heading) * step;
+            y += (float) Math.sin(heading) * step;
+        }
+        return points;
+    }
+
+    /**
+     * Copies a set of points.
+     * @param points - the points.
+     * @return StrokePoints - the copy.
+     */
+    private static StrokePoints copy(StrokePoints points)
+    {
+        StrokePoints copy = new StrokePoints(false);
+        for (int i = 0; i < points.size(); i++)
+            copy.add(points.getX(i), points.getY(i), 0);
+        return copy;
+    }
+
+    /**
+     * Flattens the curves a stroke is drawn with, in the same way as the StrokeRenderer builds its path,
+     * into a line through the given number of steps of each curve.
+     * @param points - the points of the stroke.
+     * @return float[] - the x and y-ordinates of each point of the line in turn.
+     */
+    private static float[] smooth(StrokePoints points)
+    {
+        float[] line = new float[(points.size() * CURVE_STEPS + 2) * 2];
+        int size = 0;
+        float currentX = points.getX(0);
+        float currentY = points.getY(0);
+        line[size++] = currentX;
+        line[size++] = currentY;
+        for (int i = 1; i < points.size(); i++)
+        {
+            float controlX = points.getX(i - 1);
+            float controlY = points.getY(i - 1);
+            float endX = (points.getX(i) + controlX) / 2;
+            float endY = (points.getY(i) + controlY) / 2;
+            for (int step = 1; step <= CURVE_STEPS; step++)
+            {
+                float t = (float) step / CURVE_STEPS;
+                float u = 1 - t;
+                line[size++] = u * u * currentX + 2 * u * t * controlX + t * t * endX;
+                line[size++] = u * u * currentY + 2 * u * t * controlY + t * t * endY;
+            }
+            currentX = endX;
+            currentY = endY;
+        }
+        line[size++] = points.getX(points.size() - 1);
+        line[size++] = points.getY(points.size() - 1);
+        return line;
+    }
+
+    /**
+     * Returns the furthest any point of one line lies from another line.
+     * @param from - the line whose points are measured.
+     * @param to - the line they are measured to.
+     * @return double - the furthest distance.
+     */
+    private static double furthest(float[] from, float[] to)
+    {
+        double furthest = 0;
+        for (int i = 0; i < from.length; i += 2)
+        {
+            double nearest = Double.MAX_VALUE;
+            for (int j = 2; j < to.length; j += 2)
+            {
+                double startX = to[j - 2];
+                double startY = to[j - 1];
+                double dx = to[j] - startX;
+                double dy = to[j + 1] - startY;
+                double lengthSquared = dx * dx + dy * dy;
+                // project the point onto the segment, clamping to its ends
+                double t = 0;
+                if (lengthSquared > 0)
+                    t = ((from[i] - startX) * dx + (from[i + 1] - startY) * dy) / lengthSquared;
+                t = Math.max(0, Math.min(1, t));
+                nearest = Math.min(nearest,
+                        Math.hypot(from[i] - (startX + t * dx), from[i + 1] - (startY + t * dy)));
+            }
+            furthest = Math.max(furthest, nearest);
+        }
+        return furthest;
+    }
+
+    @Test
+    public void negativeTolerance_isClamped()
+    {
+        StrokeSimplifier simplifier = new StrokeSimplifier(-1);
+        assertEquals(0, simplifier.getTolerance(), 0);
+        StrokePoints points = wanderingStroke(new Random(1));
+        int size = points.size();
+        assertEquals(0, simplifier.simplify(points));
+        assertEquals(size, points.size());
+    }
+
+    @Test
+    public void collinearPoints_areRemoved()
+    {
+        StrokeSimplifier simplifier = new StrokeSimplifier(StrokeSimplifier.DEFAULT_TOLERANCE);
+        StrokePoints points = new StrokePoints(false);
+        for (int i = 0; i <= 10; i++)
+            points.add(i * 5, 20, 0);
+        assertEquals(9, simplifier.simplify(points));
+        assertEquals(0, points.getX(0), 0);
+        assertEquals(50, points.getX(1), 0);
+    }
+
+    @Test
+    public void defaultTolerance_keepsTheSmoothedStrokeWithinHalfAPixel()
+    {
+        // the live stroke is drawn before it is simplified, so a replay must land on the same pixels
+        StrokeSimplifier simplifier = new StrokeSimplifier(StrokeSimplifier.DEFAULT_TOLERANCE);
+        Random random = new Random(42);
+        long removed = 0;
+        for (int stroke = 0; stroke < 200; stroke++)
+        {
+            StrokePoints drawn = wanderingStroke(random);
+            StrokePoints simplified = copy(drawn);
+            removed += simplifier.simplify(simplified);
+            float[] drawnLine = smooth(drawn);
+            float[] simplifiedLine = smooth(simplified);
+            double error = Math.max(furthest(simplifiedLine, drawnLine), furthest(drawnLine, simplifiedLine));
+            assertTrue("stroke " + stroke + " moved by " + error + " pixels", error < 0.5);
+        }
+        // the tolerance still removes points
+        assertTrue(removed > 0);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.simplepaintapp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for reading strokes back from the StrokeSpillFile, which run on the development machine.
+ */
+public class StrokeSpillFileTest
+{
+    private StrokeSpillFile spillFile;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File file = File.createTempFile("spill", ".spill");
+        file.deleteOnExit();
+        spillFile = new StrokeSpillFile(file);
+    }
+
+    /**
+     * Creates the points of a straight stroke.
+     * @param size - the number of points.
+     * @return StrokePoints - the points.
+     */
+    private static StrokePoints line(int size)
+    {
+        StrokePoints points = new StrokePoints(false);
+        for (int i = 0; i < size; i++)
+            points.add(i, 2 * i, 0);
+        return points;
+    }
+
+    @Test
+    public void writtenPoints_loadBack() throws IOException
+    {
+        spillFile.write(line(3));
+        long handle = spillFile.write(line(5));
+        StrokePoints points = spillFile.load(handle);
+        assertEquals(5, points.size());
+        assertEquals(4, points.getX(4), 0);
+        assertEquals(8, points.getY(4), 0);
+    }
+
+    @Test
+    public void staleHandle_throwsIOException() throws IOException
+    {
+        long handle = spillFile.write(line(5));
+        spillFile.clear();
+        try
+        {
+            spillFile.load(handle);
+            fail("a handle from before the clear was loaded");
+        } catch (IOException e)
+        {
+            // expected, as the record no longer exists
+        }
+        // a record written since covers the old handle, but the handle lands part way into it
+        spillFile.write(line(1));
+        spillFile.write(line(20));
+        try
+        {
+            spillFile.load(handle + 1);
+            fail("a handle within another record was loaded");
+        } catch (IOException e)
+        {
+            // expected, as the checksum does not match
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.simplepaintapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the TouchSampleQueue, which run on the development machine.
+ */
+public class TouchSampleQueueTest
+{
+    @Test
+    public void samples_arePolledInOrder()
+    {
+        TouchSampleQueue queue = new TouchSampleQueue(4);
+        assertFalse(queue.poll());
+        assertTrue(queue.offer(7, 1, 2, 3, 0));
+        assertTrue(queue.offer(8, 4, 5, 6, 2));
+        assertTrue(queue.poll());
+        assertEquals(7, queue.getPointerId());
+        assertEquals(1, queue.getX(), 0);
+        assertEquals(2, queue.getY(), 0);
+        assertEquals(3, queue.getTime());
+        assertEquals(0, queue.getAction());
+        assertTrue(queue.poll());
+        assertEquals(8, queue.getPointerId());
+        assertEquals(6, queue.getTime());
+        assertEquals(2, queue.getAction());
+        assertFalse(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void fullQueue_rejectsSamplesUntilPolled()
+    {
+        TouchSampleQueue queue = new TouchSampleQueue(3);
+        assertEquals(4, queue.getCapacity());
+        for (int i = 0; i < 4; i++)
+            assertTrue(queue.offer(0, i, i, i, 2));
+        assertFalse(queue.offer(0, 4, 4, 4, 2));
+        assertTrue(queue.poll());
+        assertTrue(queue.offer(0, 4, 4, 4, 2));
+        for (int i = 1; i <= 4; i++)
+        {
+            assertTrue(queue.poll());
+            assertEquals(i, queue.getTime());
+        }
+    }
+
+    @Test
+    public void concurrentProducer_losesNothing() throws Exception
+    {
+        final int count = 1000000;
+        final TouchSampleQueue queue = new TouchSampleQueue(64);
+        Thread producer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    while (!queue.offer(i & 7, i, -i, i, i & 3))
+                        Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        for (int i = 0; i < count; i++)
+        {
+            while (!queue.poll())
+                Thread.yield();
+            // every field of a sample is written before it is published
+            assertEquals(i, queue.getTime());
+            assertEquals(i, queue.getX(), 0);
+            assertEquals(-i, queue.getY(), 0);
+            assertEquals(i & 3, queue.getAction());
+            assertEquals(i & 7, queue.getPointerId());
+        }
+        producer.join();
+        assertFalse(queue.poll());
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.simplepaintapp.benchmark;
+
+import com.example.simplepaintapp.PngStreamWriter;
+import com.example.simplepaintapp.SoftwareRasterizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of encoding a rendered drawing as a PNG, at the size of the canvas and at the scale of the
+ * high resolution export. The image is streamed to the encoder a band at a time, as the export does,
+ * and the encoded bytes are counted rather than written so only the encoding is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportEncodingBenchmark
+{
+    private static final int BAND_HEIGHT = 512;
+
+    @Param({"1", "2"})
+    public int scale;
+
+    @Param({"100", "1000"})
+    public int strokeCount;
+
+    private int width;
+    private int height;
+    private int[] pixels;
+    private CountingOutputStream outputStream;
+
+    /**
+     * Renders the strokes at the output scale.
+     * @throws IOException - if a stroke's points could not be paged in.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        width = StrokeFixtures.CANVAS_WIDTH * scale;
+        height = StrokeFixtures.CANVAS_HEIGHT * scale;
+        SoftwareRasterizer rasterizer = new SoftwareRasterizer(width, height);
+        rasterizer.clear(0xffffffff);
+        rasterizer.setTransform(scale, 0, 0);
+        rasterizer.drawStrokes(StrokeFixtures.createStrokes(strokeCount, 120));
+        pixels = rasterizer.getPixels();
+        outputStream = new CountingOutputStream();
+    }
+
+    /**
+     * Encodes the image.
+     * @return long - the length of the PNG.
+     * @throws IOException - if the image could not be encoded.
+     */
+    @Benchmark
+    public long encode() throws IOException
+    {
+        outputStream.count = 0;
+        PngStreamWriter writer = new PngStreamWriter(outputStream, width, height);
+        for (int top = 0; top < height; top += BAND_HEIGHT)
+            writer.writeRows(pixels, top * width, width, Math.min(BAND_HEIGHT, height - top));
+        writer.finish();
+        return outputStream.count;
+    }
+
+    /**
+     * Class which counts the bytes written to it and discards them.
+     */
+    private static final class CountingOutputStream extends OutputStream
+    {
+        private long count;
+
+        /**
+         * Counts a single byte.
+         * @param b - the byte.
+         */
+        @Override
+        public void write(int b)
+        {
+            count++;
+        }
+
+        /**
+         * Counts an array of bytes.
+         * @param b - the bytes.
+         * @param off - the index of the first byte.
+         * @param len - the number of bytes.
+         */
+        @Override
+        public void write(byte[] b, int off, int len)
+        {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.simplepaintapp.benchmark;
+
+import com.example.simplepaintapp.DrawPath;
+import com.example.simplepaintapp.SoftwareRasterizer;
+import com.example.simplepaintapp.StrokeHistory;
+import com.example.simplepaintapp.StrokeSpillFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of replaying the whole undo list onto a blank canvas, as happens when a drawing is opened
+ * or an undo falls back to redrawing everything. The strokes are drawn with the software rasterizer,
+ * which smooths and flattens them in the same way as the renderer, standing in for the canvas.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HistoryReplayBenchmark
+{
+    @Param({"100", "1000"})
+    public int strokeCount;
+
+    @Param({"30", "120"})
+    public int samplesPerStroke;
+
+    private File spill;
+    private StrokeHistory history;
+    private SoftwareRasterizer rasterizer;
+
+    /**
+     * Fills the history with strokes and creates the canvas to replay them onto.
+     * @throws IOException - if the spill file could not be created.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        spill = File.createTempFile("replay", ".spill");
+        history = new StrokeHistory(new StrokeSpillFile(spill), StrokeHistory.DEFAULT_MEMORY_BUDGET);
+        ArrayList<DrawPath> strokes = StrokeFixtures.createStrokes(strokeCount, samplesPerStroke);
+        for (DrawPath drawPath : strokes)
+            history.add(drawPath);
+        rasterizer = new SoftwareRasterizer(StrokeFixtures.CANVAS_WIDTH, StrokeFixtures.CANVAS_HEIGHT);
+    }
+
+    /**
+     * Deletes the spill file.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        spill.delete();
+    }
+
+    /**
+     * Clears the canvas and draws every stroke in the undo list in order.
+     * @return int - a pixel of the canvas, so the drawing is not optimised away.
+     * @throws IOException - if a stroke's points could not be paged in.
+     */
+    @Benchmark
+    public int replay() throws IOException
+    {
+        rasterizer.clear(0);
+        for (int i = 0; i < history.size(); i++)
+            rasterizer.drawStroke(history.get(i));
+        return rasterizer.getPixel(StrokeFixtures.CANVAS_WIDTH / 2, StrokeFixtures.CANVAS_HEIGHT / 2);
+    }
+}
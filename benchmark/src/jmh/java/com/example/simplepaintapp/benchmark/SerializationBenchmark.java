@@ -0,0 +1,98 @@
+package com.example.simplepaintapp.benchmark;
+
+import com.example.simplepaintapp.DrawPath;
+import com.example.simplepaintapp.DrawingDocument;
+import com.example.simplepaintapp.StrokePoints;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of saving a drawing as a document and of opening it again and reading back every stroke,
+ * as the autosave compaction and the recovery of a drawing do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SerializationBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int strokeCount;
+
+    @Param({"30", "120"})
+    public int samplesPerStroke;
+
+    private ArrayList<DrawPath> strokes;
+    private File directory;
+    private File written;
+    private File saved;
+
+    /**
+     * Generates the strokes, and saves them once for the benchmark which opens them.
+     * @throws IOException - if the document could not be saved.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        strokes = StrokeFixtures.createStrokes(strokeCount, samplesPerStroke);
+        directory = File.createTempFile("documents", "");
+        directory.delete();
+        directory.mkdirs();
+        written = new File(directory, "written" + DrawingDocument.FILE_EXTENSION);
+        saved = new File(directory, "saved" + DrawingDocument.FILE_EXTENSION);
+        DrawingDocument.write(saved, StrokeFixtures.CANVAS_WIDTH, StrokeFixtures.CANVAS_HEIGHT, strokes, 0);
+    }
+
+    /**
+     * Deletes the documents.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        written.delete();
+        saved.delete();
+        directory.delete();
+    }
+
+    /**
+     * Saves every stroke to a document, including forcing it to disk.
+     * @return long - the length of the document.
+     * @throws IOException - if the document could not be saved.
+     */
+    @Benchmark
+    public long write() throws IOException
+    {
+        DrawingDocument.write(written, StrokeFixtures.CANVAS_WIDTH, StrokeFixtures.CANVAS_HEIGHT, strokes, 0);
+        return written.length();
+    }
+
+    /**
+     * Opens the document and reads the points of every stroke.
+     * @return int - the total number of points read.
+     * @throws IOException - if the document could not be read.
+     */
+    @Benchmark
+    public int read() throws IOException
+    {
+        DrawingDocument document = DrawingDocument.open(saved);
+        int points = 0;
+        for (int i = 0; i < document.getStrokeCount(); i++)
+        {
+            StrokePoints strokePoints = document.getStroke(i).getPoints();
+            points += strokePoints.size();
+        }
+        return points;
+    }
+}
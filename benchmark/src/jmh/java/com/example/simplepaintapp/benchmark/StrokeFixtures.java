@@ -0,0 +1,133 @@
+package com.example.simplepaintapp.benchmark;
+
+import com.example.simplepaintapp.DrawPath;
+import com.example.simplepaintapp.StrokeBuilder;
+import com.example.simplepaintapp.StrokeSimplifier;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Class which generates the touch samples and strokes the benchmarks run on. Each gesture is a smooth
+ * random walk across a phone-sized canvas, sampled every 8ms as a 120Hz touch screen would report it,
+ * so the strokes have the lengths, curvature, and point spacing of real hand-drawn strokes. A fixed
+ * seed keeps every run on the same data.
+ */
+public final class StrokeFixtures
+{
+    public static final int CANVAS_WIDTH = 1080;
+    public static final int CANVAS_HEIGHT = 1920;
+    public static final long SEED = 0x5eed;
+
+    private static final long SAMPLE_INTERVAL = 8;
+    private static final int[] COLOURS = {0xff000000, 0xffe53935, 0xff1e88e5, 0xff43a047, 0x80fdd835};
+    private static final int[] WIDTHS = {5, 15, 30};
+
+    /**
+     * Private constructor, as the class only holds static methods.
+     */
+    private StrokeFixtures()
+    {
+    }
+
+    /**
+     * Generates the samples of a single gesture.
+     * @param random - the random number generator.
+     * @param sampleCount - the number of samples.
+     * @return Gesture - the gesture.
+     */
+    public static Gesture createGesture(Random random, int sampleCount)
+    {
+        Gesture gesture = new Gesture(sampleCount, COLOURS[random.nextInt(COLOURS.length)],
+                WIDTHS[random.nextInt(WIDTHS.length)]);
+        float x = 50 + random.nextFloat() * (CANVAS_WIDTH - 100);
+        float y = 50 + random.nextFloat() * (CANVAS_HEIGHT - 100);
+        double heading = random.nextDouble() * 2 * Math.PI;
+        double turn = 0;
+        long time = 0;
+        for (int i = 0; i < sampleCount; i++)
+        {
+            gesture.xs[i] = x;
+            gesture.ys[i] = y;
+            gesture.times[i] = time;
+            // the pen turns gradually, and moves between 1 and 12 pixels per sample so some samples
+            // fall within the touch tolerance
+            turn = turn * 0.9 + (random.nextDouble() - 0.5) * 0.1;
+            heading += turn;
+            float speed = 1 + random.nextFloat() * 11;
+            x += (float) Math.cos(heading) * speed;
+            y += (float) Math.sin(heading) * speed;
+            // turn back at the edges of the canvas
+            if (x < 0 || x > CANVAS_WIDTH)
+            {
+                heading = Math.PI - heading;
+                x = Math.max(0, Math.min(CANVAS_WIDTH, x));
+            }
+            if (y < 0 || y > CANVAS_HEIGHT)
+            {
+                heading = -heading;
+                y = Math.max(0, Math.min(CANVAS_HEIGHT, y));
+            }
+            time += SAMPLE_INTERVAL;
+        }
+        return gesture;
+    }
+
+    /**
+     * Generates a list of committed strokes, each built from a gesture in the same way as the canvas
+     * builds them from touches.
+     * @param strokeCount - the number of strokes.
+     * @param sampleCount - the number of samples in each gesture.
+     * @return ArrayList - the strokes, in the order they were drawn.
+     */
+    public static ArrayList<DrawPath> createStrokes(int strokeCount, int sampleCount)
+    {
+        Random random = new Random(SEED);
+        StrokeBuilder builder = new StrokeBuilder(new StrokeSimplifier(StrokeSimplifier.DEFAULT_TOLERANCE),
+                StrokeBuilder.DEFAULT_TOUCH_TOLERANCE);
+        ArrayList<DrawPath> strokes = new ArrayList<>(strokeCount);
+        for (int i = 0; i < strokeCount; i++)
+            strokes.add(createGesture(random, sampleCount).build(builder));
+        return strokes;
+    }
+
+    /**
+     * Class which holds the samples of a single gesture.
+     */
+    public static final class Gesture
+    {
+        public final float[] xs;
+        public final float[] ys;
+        public final long[] times;
+        public final int colour;
+        public final int width;
+
+        /**
+         * Constructor for the Gesture class.
+         * @param sampleCount - the number of samples.
+         * @param colour - the colour of the stroke.
+         * @param width - the width of the stroke.
+         */
+        private Gesture(int sampleCount, int colour, int width)
+        {
+            xs = new float[sampleCount];
+            ys = new float[sampleCount];
+            times = new long[sampleCount];
+            this.colour = colour;
+            this.width = width;
+        }
+
+        /**
+         * Feeds the samples through a stroke builder, as the canvas does for a down, moves, and an up.
+         * @param builder - the stroke builder.
+         * @return DrawPath - the committed stroke.
+         */
+        public DrawPath build(StrokeBuilder builder)
+        {
+            builder.begin(xs[0], ys[0], times[0], colour, width);
+            for (int i = 1; i < xs.length; i++)
+                builder.add(xs[i], ys[i], times[i]);
+            return builder.end();
+        }
+    }
+}
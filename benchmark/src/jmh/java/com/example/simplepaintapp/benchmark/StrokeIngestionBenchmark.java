@@ -0,0 +1,63 @@
+package com.example.simplepaintapp.benchmark;
+
+import com.example.simplepaintapp.DrawPath;
+import com.example.simplepaintapp.StrokeBuilder;
+import com.example.simplepaintapp.StrokeSimplifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of turning the touch samples of a gesture into a committed stroke: the touch tolerance
+ * applied to each move, and the simplification and trimming when the touch ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StrokeIngestionBenchmark
+{
+    private static final int GESTURE_COUNT = 64;
+
+    // a tap or tick, a typical stroke, and a long scribble
+    @Param({"8", "120", "1200"})
+    public int samplesPerStroke;
+
+    private StrokeFixtures.Gesture[] gestures;
+    private StrokeBuilder builder;
+    private int next;
+
+    /**
+     * Generates the gestures, which are cycled through so each invocation works on different samples.
+     */
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(StrokeFixtures.SEED);
+        gestures = new StrokeFixtures.Gesture[GESTURE_COUNT];
+        for (int i = 0; i < GESTURE_COUNT; i++)
+            gestures[i] = StrokeFixtures.createGesture(random, samplesPerStroke);
+        builder = new StrokeBuilder(new StrokeSimplifier(StrokeSimplifier.DEFAULT_TOLERANCE),
+                StrokeBuilder.DEFAULT_TOUCH_TOLERANCE);
+    }
+
+    /**
+     * Ingests one gesture, from its first touch to its last.
+     * @return DrawPath - the committed stroke.
+     */
+    @Benchmark
+    public DrawPath ingestStroke()
+    {
+        StrokeFixtures.Gesture gesture = gestures[next];
+        next = (next + 1) % GESTURE_COUNT;
+        return gesture.build(builder);
+    }
+}
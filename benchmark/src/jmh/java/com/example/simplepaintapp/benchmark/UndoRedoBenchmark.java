@@ -0,0 +1,89 @@
+package com.example.simplepaintapp.benchmark;
+
+import com.example.simplepaintapp.DrawPath;
+import com.example.simplepaintapp.StrokeHistory;
+import com.example.simplepaintapp.StrokeIndex;
+import com.example.simplepaintapp.StrokePoints;
+import com.example.simplepaintapp.StrokeSpillFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the bookkeeping behind an undo and a redo: moving the stroke between the undo and redo
+ * lists, keeping the spatial index in step, and finding the strokes which overlap the undone stroke and
+ * have to be drawn again in its area.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UndoRedoBenchmark
+{
+    @Param({"100", "1000", "10000"})
+    public int strokeCount;
+
+    @Param({"30", "120"})
+    public int samplesPerStroke;
+
+    private File spill;
+    private StrokeHistory history;
+    private StrokeIndex strokeIndex;
+
+    /**
+     * Fills the history and the index with strokes.
+     * @throws IOException - if the spill file could not be created.
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        spill = File.createTempFile("undo", ".spill");
+        // a budget large enough that no stroke is spilled, so only the bookkeeping is measured
+        history = new StrokeHistory(new StrokeSpillFile(spill), Long.MAX_VALUE);
+        strokeIndex = new StrokeIndex(StrokeFixtures.CANVAS_WIDTH, StrokeFixtures.CANVAS_HEIGHT);
+        ArrayList<DrawPath> strokes = StrokeFixtures.createStrokes(strokeCount, samplesPerStroke);
+        for (DrawPath drawPath : strokes)
+        {
+            history.add(drawPath);
+            strokeIndex.add(drawPath);
+        }
+    }
+
+    /**
+     * Deletes the spill file.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        spill.delete();
+    }
+
+    /**
+     * Undoes the last stroke, finds the strokes to redraw in its area, and then redoes it.
+     * @return int - the number of strokes overlapping the undone stroke.
+     * @throws IOException - if the stroke's points could not be paged in.
+     */
+    @Benchmark
+    public int undoRedo() throws IOException
+    {
+        DrawPath undone = history.undo();
+        strokeIndex.removeLast();
+        StrokePoints points = undone.getPoints();
+        float inset = undone.getWidth() / 2f + 1;
+        int count = strokeIndex.query(points.getMinX() - inset, points.getMinY() - inset,
+                points.getMaxX() + inset, points.getMaxY() + inset);
+        strokeIndex.add(history.redo());
+        return count;
+    }
+}